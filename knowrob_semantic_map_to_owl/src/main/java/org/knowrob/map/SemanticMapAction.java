@@ -28,12 +28,33 @@ public class SemanticMapAction extends OWLClass {
   */
   protected Boolean unordered = false;
   
+  /**
+  * Ordering constraints of subactions, either between all pairs of
+  * subactions or between adjacent subactions only
+  */
+  public enum Ordering {
+    PAIRWISE,
+    SEQUENTIAL
+  };
+  
+  protected Ordering ordering = Ordering.PAIRWISE;
+  
   /**
   * Subactions
   */
   protected Vector<SemanticMapAction> subactions = new
     Vector<SemanticMapAction>();
   
+  /**
+  * Object acted on
+  */
+  protected SemanticMapObject objectActedOn = null;
+  
+  /**
+  * Registry this action was created by, if any
+  */
+  protected SemanticMapRegistry registry = null;
+  
   /**
    * Constructor. Set the IRI and optionally a label. If none is given, 
    * it is initialized with the IRI's short name.
@@ -92,6 +113,24 @@ public class SemanticMapAction extends OWLClass {
     return getSemanticMapAction(iri, null); 
   }
 
+  /**
+  * Get registry.
+  *
+  * @return
+  */
+  public SemanticMapRegistry getRegistry() {
+    return this.registry;
+  }
+
+  /**
+  * Set registry.
+  * 
+  * @param registry
+  */
+  public void setRegistry(SemanticMapRegistry registry) {
+    this.registry = registry;
+  }
+
   /**
   * Get asserted.
   *
@@ -116,7 +155,10 @@ public class SemanticMapAction extends OWLClass {
   * @return
   */
   public SemanticMapObject getObjectActedOn() {
-    if(has_value.containsKey("knowrob:objectActedOn")) {
+    if(this.objectActedOn != null) {
+      return this.objectActedOn;
+    }
+    else if(has_value.containsKey("knowrob:objectActedOn")) {
       return SemanticMapObject.getSemanticMapObject(
         has_value.get("knowrob:objectActedOn").get(0));
     }
@@ -136,10 +178,16 @@ public class SemanticMapAction extends OWLClass {
     }
     has_value.get("knowrob:objectActedOn").clear();
     has_value.get("knowrob:objectActedOn").add(objectActedOn.getIRI());
+    this.objectActedOn = objectActedOn;
   }
   
   public void setObjectActedOn(String iri) {
-    this.setObjectActedOn(SemanticMapObject.getSemanticMapObject(iri));
+    if(this.registry != null) {
+      this.setObjectActedOn(this.registry.getSemanticMapObject(iri));
+    }
+    else {
+      this.setObjectActedOn(SemanticMapObject.getSemanticMapObject(iri));
+    }
   }
   
   /**
@@ -178,6 +226,24 @@ public class SemanticMapAction extends OWLClass {
     this.unordered = unordered;
   }
   
+  /**
+  * Get ordering.
+  *
+  * @return
+  */
+  public Ordering getOrdering() {
+    return this.ordering;
+  }
+
+  /**
+  * Set ordering.
+  *
+  * @param ordering
+  */
+  public void setOrdering(Ordering ordering) {
+    this.ordering = ordering;
+  }
+  
   /**
   * Get subactions.
   *
@@ -199,6 +265,11 @@ public class SemanticMapAction extends OWLClass {
   }
   
   public void addSubaction(String iri) {
-    this.addSubaction(SemanticMapAction.getSemanticMapAction(iri));
+    if(this.registry != null) {
+      this.addSubaction(this.registry.getSemanticMapAction(iri));
+    }
+    else {
+      this.addSubaction(SemanticMapAction.getSemanticMapAction(iri));
+    }
   }
 }
@@ -0,0 +1,369 @@
+package org.knowrob.map;
+
+import java.util.HashMap;
+
+import org.semanticweb.owlapi.model.*;
+import org.semanticweb.owlapi.util.DefaultPrefixManager;
+
+import org.knowrob.owl.OWLThing;
+
+/**
+* Memoizing resolution of the IRIs used in a semantic map conversion into
+* OWL entities
+*
+* IRIs are resolved like the factory calls of the export: abbreviated IRIs
+* with a known prefix are expanded by the prefix manager, relative IRIs
+* fall back to a default prefix, and anything else is taken as absolute.
+* Each distinct string is resolved once per conversion, so the prefix
+* manager must not change while the resolver is in use.
+*
+*/
+
+public class SemanticMapIRIResolver {
+  /**
+  * Prefix manager of the conversion
+  */
+  protected DefaultPrefixManager prefixManager;
+
+  /**
+  * Data factory
+  */
+  protected OWLDataFactory factory;
+
+  protected HashMap<String, OWLClass> classes = new
+    HashMap<String, OWLClass>();
+  protected HashMap<String, OWLNamedIndividual> individuals = new
+    HashMap<String, OWLNamedIndividual>();
+  protected HashMap<String, OWLObjectProperty> objectProperties = new
+    HashMap<String, OWLObjectProperty>();
+  protected HashMap<String, OWLDataProperty> dataProperties = new
+    HashMap<String, OWLDataProperty>();
+
+  /**
+  * Properties resolved without default prefix, by the IRI they were
+  * resolved from
+  */
+  protected HashMap<String, OWLObjectProperty> resolvedObjectProperties =
+    new HashMap<String, OWLObjectProperty>();
+  protected HashMap<String, OWLDataProperty> resolvedDataProperties =
+    new HashMap<String, OWLDataProperty>();
+
+  /**
+  * Classes and individuals resolved with a default prefix, by default
+  * prefix and the IRI they were resolved from
+  */
+  protected HashMap<String, HashMap<String, OWLClass>> resolvedClasses =
+    new HashMap<String, HashMap<String, OWLClass>>();
+  protected HashMap<String, HashMap<String, OWLNamedIndividual>>
+    resolvedIndividuals = new HashMap<String, HashMap<String,
+    OWLNamedIndividual>>();
+
+  /**
+  * Classes and individuals of the map, by namespace and identifier
+  */
+  protected HashMap<String, HashMap<String, OWLClass>> mapClasses =
+    new HashMap<String, HashMap<String, OWLClass>>();
+  protected HashMap<String, HashMap<String, OWLNamedIndividual>>
+    mapIndividuals = new HashMap<String, HashMap<String,
+    OWLNamedIndividual>>();
+
+  /**
+  * Knowrob data properties by the data property IRI they were resolved
+  * from
+  */
+  protected HashMap<String, OWLDataProperty> knowrobDataProperties =
+    new HashMap<String, OWLDataProperty>();
+
+  public SemanticMapIRIResolver(DefaultPrefixManager prefixManager,
+      OWLDataFactory factory) {
+    this.prefixManager = prefixManager;
+    this.factory = factory;
+  }
+
+  /**
+  * Get prefix manager.
+  *
+  * @return
+  */
+  public DefaultPrefixManager getPrefixManager() {
+    return prefixManager;
+  }
+
+  /**
+  * Get data factory.
+  *
+  * @return
+  */
+  public OWLDataFactory getFactory() {
+    return factory;
+  }
+
+  /**
+  * Resolve an IRI which is either abbreviated with a known prefix,
+  * relative, or absolute.
+  *
+  * @param iri IRI to be resolved
+  * @param defaultPrefix Prefix name for relative IRIs, or null if relative
+  *   IRIs should be taken as they are
+  * @return Resolved IRI
+  */
+  public IRI resolveIRI(String iri, String defaultPrefix) {
+    IRI rawIRI = IRI.create(iri);
+
+    if(prefixManager.getPrefix(rawIRI.getNamespace()) != null) {
+      return prefixManager.getIRI(iri);
+    }
+    else if((defaultPrefix != null) && !rawIRI.isAbsolute()) {
+      return prefixManager.getIRI(defaultPrefix+
+        OWLThing.getShortNameOfIRI(iri));
+    }
+    else {
+      return rawIRI;
+    }
+  }
+
+  /**
+  * Resolve the IRI of a map entity, given by its identifier relative to
+  * the map namespace.
+  *
+  * @param namespace Map namespace
+  * @param id Identifier of the entity
+  * @return Resolved IRI
+  */
+  public IRI resolveMapIRI(String namespace, String id) {
+    IRI mapIRI = IRI.create(namespace + id);
+
+    if(prefixManager.getPrefix(mapIRI.getNamespace()) != null) {
+      return prefixManager.getIRI(id);
+    }
+    else {
+      return mapIRI;
+    }
+  }
+
+  /**
+  * Get a class by its abbreviated IRI.
+  *
+  * @param abbreviatedIRI IRI abbreviated with a known prefix
+  * @return
+  */
+  public OWLClass getOWLClass(String abbreviatedIRI) {
+    OWLClass res = classes.get(abbreviatedIRI);
+
+    if(res == null) {
+      res = factory.getOWLClass(abbreviatedIRI, prefixManager);
+      classes.put(abbreviatedIRI, res);
+    }
+
+    return res;
+  }
+
+  /**
+  * Resolve a class, see {@link #resolveIRI(String, String)}.
+  *
+  * @param iri IRI to be resolved
+  * @param defaultPrefix Prefix name for relative IRIs, or null
+  * @return
+  */
+  public OWLClass resolveOWLClass(String iri, String defaultPrefix) {
+    HashMap<String, OWLClass> memo = getMemo(resolvedClasses,
+      defaultPrefix);
+    OWLClass res = memo.get(iri);
+
+    if(res == null) {
+      res = factory.getOWLClass(resolveIRI(iri, defaultPrefix));
+      memo.put(iri, res);
+    }
+
+    return res;
+  }
+
+  /**
+  * Resolve a class of the map, see
+  * {@link #resolveMapIRI(String, String)}.
+  *
+  * @param namespace Map namespace
+  * @param id Identifier of the class
+  * @return
+  */
+  public OWLClass resolveMapOWLClass(String namespace, String id) {
+    HashMap<String, OWLClass> memo = getMemo(mapClasses, namespace);
+    OWLClass res = memo.get(id);
+
+    if(res == null) {
+      res = factory.getOWLClass(resolveMapIRI(namespace, id));
+      memo.put(id, res);
+    }
+
+    return res;
+  }
+
+  /**
+  * Get an individual by its abbreviated IRI.
+  *
+  * @param abbreviatedIRI IRI abbreviated with a known prefix
+  * @return
+  */
+  public OWLNamedIndividual getOWLNamedIndividual(String abbreviatedIRI) {
+    OWLNamedIndividual res = individuals.get(abbreviatedIRI);
+
+    if(res == null) {
+      res = factory.getOWLNamedIndividual(abbreviatedIRI, prefixManager);
+      individuals.put(abbreviatedIRI, res);
+    }
+
+    return res;
+  }
+
+  /**
+  * Resolve an individual, see {@link #resolveIRI(String, String)}.
+  *
+  * @param iri IRI to be resolved
+  * @param defaultPrefix Prefix name for relative IRIs, or null
+  * @return
+  */
+  public OWLNamedIndividual resolveOWLNamedIndividual(String iri,
+      String defaultPrefix) {
+    HashMap<String, OWLNamedIndividual> memo = getMemo(
+      resolvedIndividuals, defaultPrefix);
+    OWLNamedIndividual res = memo.get(iri);
+
+    if(res == null) {
+      res = factory.getOWLNamedIndividual(resolveIRI(iri, defaultPrefix));
+      memo.put(iri, res);
+    }
+
+    return res;
+  }
+
+  /**
+  * Resolve an individual of the map, see
+  * {@link #resolveMapIRI(String, String)}.
+  *
+  * @param namespace Map namespace
+  * @param id Identifier of the individual
+  * @return
+  */
+  public OWLNamedIndividual resolveMapOWLNamedIndividual(String namespace,
+      String id) {
+    HashMap<String, OWLNamedIndividual> memo = getMemo(mapIndividuals,
+      namespace);
+    OWLNamedIndividual res = memo.get(id);
+
+    if(res == null) {
+      res = factory.getOWLNamedIndividual(resolveMapIRI(namespace, id));
+      memo.put(id, res);
+    }
+
+    return res;
+  }
+
+  /**
+  * Get an object property by its abbreviated IRI.
+  *
+  * @param abbreviatedIRI IRI abbreviated with a known prefix
+  * @return
+  */
+  public OWLObjectProperty getOWLObjectProperty(String abbreviatedIRI) {
+    OWLObjectProperty res = objectProperties.get(abbreviatedIRI);
+
+    if(res == null) {
+      res = factory.getOWLObjectProperty(abbreviatedIRI, prefixManager);
+      objectProperties.put(abbreviatedIRI, res);
+    }
+
+    return res;
+  }
+
+  /**
+  * Resolve an object property, see {@link #resolveIRI(String, String)}.
+  * Relative IRIs are taken as they are.
+  *
+  * @param iri IRI to be resolved
+  * @return
+  */
+  public OWLObjectProperty resolveOWLObjectProperty(String iri) {
+    OWLObjectProperty res = resolvedObjectProperties.get(iri);
+
+    if(res == null) {
+      res = factory.getOWLObjectProperty(resolveIRI(iri, null));
+      resolvedObjectProperties.put(iri, res);
+    }
+
+    return res;
+  }
+
+  /**
+  * Get a data property by its abbreviated IRI.
+  *
+  * @param abbreviatedIRI IRI abbreviated with a known prefix
+  * @return
+  */
+  public OWLDataProperty getOWLDataProperty(String abbreviatedIRI) {
+    OWLDataProperty res = dataProperties.get(abbreviatedIRI);
+
+    if(res == null) {
+      res = factory.getOWLDataProperty(abbreviatedIRI, prefixManager);
+      dataProperties.put(abbreviatedIRI, res);
+    }
+
+    return res;
+  }
+
+  /**
+  * Resolve a data property, see {@link #resolveIRI(String, String)}.
+  * Relative IRIs are taken as they are.
+  *
+  * @param iri IRI to be resolved
+  * @return
+  */
+  public OWLDataProperty resolveOWLDataProperty(String iri) {
+    OWLDataProperty res = resolvedDataProperties.get(iri);
+
+    if(res == null) {
+      res = factory.getOWLDataProperty(resolveIRI(iri, null));
+      resolvedDataProperties.put(iri, res);
+    }
+
+    return res;
+  }
+
+  /**
+  * Get the Knowrob data property with the fragment of a data property
+  * IRI, as used for the data properties of knowrob_common objects.
+  *
+  * @param iri Data property IRI containing a fragment
+  * @return
+  */
+  public OWLDataProperty getOWLKnowrobDataProperty(String iri) {
+    OWLDataProperty res = knowrobDataProperties.get(iri);
+
+    if(res == null) {
+      res = factory.getOWLDataProperty("knowrob:" + iri.split("#")[1],
+        prefixManager);
+      knowrobDataProperties.put(iri, res);
+    }
+
+    return res;
+  }
+
+  /**
+  * Get the memo of the entities resolved with a default prefix or in a
+  * namespace, creating it if necessary.
+  *
+  * @param memos Memos by default prefix or namespace
+  * @param key Default prefix or namespace, or null
+  * @return
+  */
+  protected static <T> HashMap<String, T> getMemo(HashMap<String,
+      HashMap<String, T>> memos, String key) {
+    HashMap<String, T> memo = memos.get(key);
+
+    if(memo == null) {
+      memo = new HashMap<String, T>();
+      memos.put(key, memo);
+    }
+
+    return memo;
+  }
+}
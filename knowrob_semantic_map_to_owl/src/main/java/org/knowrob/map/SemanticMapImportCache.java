@@ -0,0 +1,404 @@
+package org.knowrob.map;
+
+import java.io.File;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.io.OWLOntologyDocumentSource;
+import org.semanticweb.owlapi.model.*;
+
+import org.knowrob.owl.utils.PackageIRIMapper;
+
+/**
+* Long-lived cache of the ontologies imported by generated semantic maps
+*
+* Imported ontologies are resolved and parsed once, keyed by import IRI,
+* and shared by all generated maps: an ontology factory hands the cached
+* ontologies to the manager of each map instead of loading the imports
+* again. Every load uses an ontology manager of its own, which is not
+* modified anymore once the loaded ontologies are published, and the
+* lazily built indices of the ontologies are filled before, such that
+* concurrent requests only ever read them. Invalidating the cache does
+* not affect requests in progress.
+*
+* Sharing the imports closure costs a few map lookups per request, where
+* copying it into every request re-indexed all of its axioms and
+* reloading it parsed it again, see SemanticMapImportCacheBenchmark.
+*
+*/
+
+public class SemanticMapImportCache {
+  /**
+  * Cached ontologies by import IRI
+  */
+  protected HashMap<IRI, OWLOntology> imports = new HashMap<IRI,
+    OWLOntology>();
+
+  /**
+  * Cached ontologies of the imports closures by the import, document
+  * and ontology IRIs they are found with
+  */
+  protected HashMap<IRI, OWLOntology> ontologies = new HashMap<IRI,
+    OWLOntology>();
+
+  /**
+  * Modification times of the documents the cached ontologies were
+  * loaded from
+  */
+  protected HashMap<OWLOntology, Long> modified = new HashMap<OWLOntology,
+    Long>();
+
+  /**
+  * Check documents for modifications before serving cached ontologies
+  */
+  protected boolean checkModified = true;
+
+  public SemanticMapImportCache() {
+  }
+
+  /**
+  * Get check modified.
+  *
+  * @return
+  */
+  public boolean getCheckModified() {
+    return checkModified;
+  }
+
+  /**
+  * Set check modified.
+  *
+  * @param checkModified
+  */
+  public void setCheckModified(boolean checkModified) {
+    this.checkModified = checkModified;
+  }
+
+  /**
+  * Load the specified ontologies into the cache ahead of the first
+  * request.
+  *
+  * @param iris IRIs of the ontologies to be loaded
+  */
+  public void preload(Collection<String> iris) {
+    for(String iri : iris) {
+      try {
+        getImport(IRI.create(iri));
+      }
+      catch(OWLOntologyCreationException e) {
+        System.out.println(e.getMessage());
+      }
+    }
+  }
+
+  /**
+  * Get an imported ontology, loading it and its imports closure if it
+  * has not been cached before or if any of its documents changed on disk.
+  *
+  * @param iri Import IRI of the ontology
+  * @return Cached ontology
+  */
+  public synchronized OWLOntology getImport(IRI iri) throws
+      OWLOntologyCreationException {
+    OWLOntology ontology = imports.get(iri);
+
+    if((ontology != null) && checkModified) {
+      for(OWLOntology imp : ontology.getImportsClosure()) {
+        Long lastModified = modified.get(imp);
+
+        if((lastModified == null) ||
+            (lastModified.longValue() != getLastModified(imp))) {
+          invalidateAll();
+          ontology = null;
+          break;
+        }
+      }
+    }
+
+    if(ontology == null) {
+      // imports cached before are shared rather than loaded again
+      OWLOntologyManager manager = createManager();
+      manager.addOntologyFactory(new CachedOntologyFactory(
+        new HashMap<IRI, OWLOntology>(ontologies)));
+
+      ontology = manager.loadOntology(iri);
+      publish(iri, ontology);
+    }
+
+    return ontology;
+  }
+
+  /**
+  * Get the cached ontologies of the imports closures by the IRIs they are
+  * found with.
+  *
+  * @return Copy of the cached ontologies
+  */
+  public synchronized HashMap<IRI, OWLOntology> getOntologies() {
+    return new HashMap<IRI, OWLOntology>(ontologies);
+  }
+
+  /**
+  * Resolve the imports declarations of an ontology to the cached
+  * ontologies, in the ontology's own manager. Imports which cannot be
+  * cached are loaded by the ontology's own manager.
+  *
+  * @param ontology Ontology whose imports should be resolved
+  */
+  public void attach(OWLOntology ontology) {
+    OWLOntologyManager target = ontology.getOWLOntologyManager();
+    Set<OWLImportsDeclaration> decls = ontology.getImportsDeclarations();
+
+    for(OWLImportsDeclaration imp : decls) {
+      try {
+        getImport(imp.getIRI());
+      }
+      catch(OWLOntologyCreationException e) {
+        System.out.println(e.getMessage());
+        target.addIRIMapper(new PackageIRIMapper());
+      }
+    }
+
+    // the request keeps the ontologies cached now, even if the cache is
+    // invalidated in the meantime
+    target.addOntologyFactory(new CachedOntologyFactory(getOntologies()));
+
+    for(OWLImportsDeclaration imp : decls) {
+      try {
+        // resolves to the cached ontology without parsing it again
+        target.makeLoadImportRequest(imp);
+      }
+      catch(OWLOntologyCreationException e) {
+        System.out.println(e.getMessage());
+      }
+    }
+  }
+
+  /**
+  * Invalidate a cached ontology. It will be loaded again when it is
+  * requested the next time.
+  *
+  * @param iri Import IRI of the ontology
+  */
+  public synchronized void invalidate(IRI iri) {
+    OWLOntology ontology = imports.remove(iri);
+
+    if(ontology != null) {
+      modified.remove(ontology);
+      ontologies.values().removeAll(Collections.singleton(ontology));
+    }
+  }
+
+  /**
+  * Invalidate all cached ontologies.
+  */
+  public synchronized void invalidateAll() {
+    imports.clear();
+    ontologies.clear();
+    modified.clear();
+  }
+
+  /**
+  * Create an ontology manager loading ontologies into the cache.
+  *
+  * @return
+  */
+  protected OWLOntologyManager createManager() {
+    OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+    manager.addIRIMapper(new PackageIRIMapper());
+
+    return manager;
+  }
+
+  /**
+  * Publish a loaded ontology and its imports closure. The manager and the
+  * ontologies it loaded are not modified anymore afterwards.
+  *
+  * @param iri Import IRI of the ontology
+  * @param ontology Loaded ontology
+  */
+  protected void publish(IRI iri, OWLOntology ontology) {
+    OWLOntologyManager manager = ontology.getOWLOntologyManager();
+
+    for(OWLOntology imp : manager.getOntologies()) {
+      // the manager caches the imports closures on first access
+      manager.getImportsClosure(imp);
+
+      if(imp.getOWLOntologyManager() == manager) {
+        initIndices(imp);
+        modified.put(imp, getLastModified(imp));
+
+        ontologies.put(manager.getOntologyDocumentIRI(imp), imp);
+        if(imp.getOntologyID().getOntologyIRI() != null) {
+          ontologies.put(imp.getOntologyID().getOntologyIRI(), imp);
+        }
+      }
+
+      for(OWLImportsDeclaration decl : imp.getImportsDeclarations()) {
+        OWLOntology imported = manager.getImportedOntology(decl);
+
+        if(imported != null) {
+          ontologies.put(decl.getIRI(), imported);
+        }
+      }
+    }
+
+    ontologies.put(iri, ontology);
+    imports.put(iri, ontology);
+  }
+
+  /**
+  * Build the indices an ontology creates lazily on first access.
+  *
+  * @param ontology Loaded ontology
+  */
+  protected void initIndices(OWLOntology ontology) {
+    OWLDataFactory factory = ontology.getOWLOntologyManager().
+      getOWLDataFactory();
+    OWLClass cls = factory.getOWLThing();
+    OWLObjectProperty objectProperty = factory.getOWLTopObjectProperty();
+    OWLDataProperty dataProperty = factory.getOWLTopDataProperty();
+    OWLNamedIndividual individual = factory.getOWLNamedIndividual(
+      cls.getIRI());
+
+    ontology.getAxioms(cls);
+    ontology.getSubClassAxiomsForSubClass(cls);
+    ontology.getSubClassAxiomsForSuperClass(cls);
+    ontology.getEquivalentClassesAxioms(cls);
+    ontology.getDisjointClassesAxioms(cls);
+    ontology.getDisjointUnionAxioms(cls);
+    ontology.getHasKeyAxioms(cls);
+
+    ontology.getObjectSubPropertyAxiomsForSubProperty(objectProperty);
+    ontology.getObjectSubPropertyAxiomsForSuperProperty(objectProperty);
+    ontology.getEquivalentObjectPropertiesAxioms(objectProperty);
+    ontology.getDisjointObjectPropertiesAxioms(objectProperty);
+    ontology.getObjectPropertyDomainAxioms(objectProperty);
+    ontology.getObjectPropertyRangeAxioms(objectProperty);
+    ontology.getFunctionalObjectPropertyAxioms(objectProperty);
+    ontology.getInverseFunctionalObjectPropertyAxioms(objectProperty);
+    ontology.getSymmetricObjectPropertyAxioms(objectProperty);
+    ontology.getAsymmetricObjectPropertyAxioms(objectProperty);
+    ontology.getReflexiveObjectPropertyAxioms(objectProperty);
+    ontology.getIrreflexiveObjectPropertyAxioms(objectProperty);
+    ontology.getTransitiveObjectPropertyAxioms(objectProperty);
+    ontology.getInverseObjectPropertyAxioms(objectProperty);
+
+    ontology.getDataSubPropertyAxiomsForSubProperty(dataProperty);
+    ontology.getDataSubPropertyAxiomsForSuperProperty(dataProperty);
+    ontology.getEquivalentDataPropertiesAxioms(dataProperty);
+    ontology.getDisjointDataPropertiesAxioms(dataProperty);
+    ontology.getDataPropertyDomainAxioms(dataProperty);
+    ontology.getDataPropertyRangeAxioms(dataProperty);
+    ontology.getFunctionalDataPropertyAxioms(dataProperty);
+
+    ontology.getClassAssertionAxioms(individual);
+    ontology.getClassAssertionAxioms(cls);
+    ontology.getObjectPropertyAssertionAxioms(individual);
+    ontology.getDataPropertyAssertionAxioms(individual);
+    ontology.getNegativeObjectPropertyAssertionAxioms(individual);
+    ontology.getNegativeDataPropertyAssertionAxioms(individual);
+    ontology.getDifferentIndividualAxioms(individual);
+    ontology.getSameIndividualAxioms(individual);
+    ontology.getAnnotationAssertionAxioms(cls.getIRI());
+  }
+
+  /**
+  * Get the modification time of the document an ontology was loaded
+  * from, or 0 if the document is not a local file.
+  *
+  * @param ontology Loaded ontology
+  * @return
+  */
+  protected long getLastModified(OWLOntology ontology) {
+    IRI documentIRI = ontology.getOWLOntologyManager().
+      getOntologyDocumentIRI(ontology);
+
+    if((documentIRI != null) && "file".equals(documentIRI.getScheme())) {
+      return new File(documentIRI.toURI()).lastModified();
+    }
+    else {
+      return 0;
+    }
+  }
+
+  /**
+  * Ontology factory handing cached ontologies to the manager it is added
+  * to, together with their imports
+  */
+  public static class CachedOntologyFactory implements OWLOntologyFactory {
+    protected Map<IRI, OWLOntology> ontologies;
+    protected OWLOntologyManager manager;
+
+    public CachedOntologyFactory(Map<IRI, OWLOntology> ontologies) {
+      this.ontologies = ontologies;
+    }
+
+    @Override
+    public void setOWLOntologyManager(OWLOntologyManager manager) {
+      this.manager = manager;
+    }
+
+    @Override
+    public OWLOntologyManager getOWLOntologyManager() {
+      return manager;
+    }
+
+    @Override
+    public boolean canCreateFromDocumentIRI(IRI documentIRI) {
+      return false;
+    }
+
+    @Override
+    public boolean canLoad(OWLOntologyDocumentSource documentSource) {
+      return ontologies.containsKey(documentSource.getDocumentIRI());
+    }
+
+    @Override
+    public OWLOntology createOWLOntology(OWLOntologyID ontologyID, IRI
+        documentIRI, OWLOntologyCreationHandler handler) throws
+        OWLOntologyCreationException {
+      throw new OWLOntologyCreationException(
+        "Cached ontologies cannot be created: "+documentIRI);
+    }
+
+    @Override
+    public OWLOntology loadOWLOntology(OWLOntologyDocumentSource
+        documentSource, OWLOntologyCreationHandler handler) throws
+        OWLOntologyCreationException {
+      return loadOWLOntology(documentSource, handler,
+        new OWLOntologyLoaderConfiguration());
+    }
+
+    @Override
+    public OWLOntology loadOWLOntology(OWLOntologyDocumentSource
+        documentSource, OWLOntologyCreationHandler handler,
+        OWLOntologyLoaderConfiguration configuration) throws
+        OWLOntologyCreationException {
+      OWLOntology ontology = ontologies.get(documentSource.getDocumentIRI());
+      if(ontology == null) {
+        throw new OWLOntologyCreationException(
+          "Ontology not cached: "+documentSource.getDocumentIRI());
+      }
+
+      handler.ontologyCreated(ontology);
+      OWLOntologyFormat format = ontology.getOWLOntologyManager().
+        getOntologyFormat(ontology);
+      if(format != null) {
+        handler.setOntologyFormat(ontology, format);
+      }
+
+      // the imports of the ontology are cached as well
+      for(OWLImportsDeclaration decl : ontology.getImportsDeclarations()) {
+        manager.makeLoadImportRequest(decl, configuration);
+      }
+
+      return ontology;
+    }
+  }
+}
@@ -0,0 +1,306 @@
+package org.knowrob.map;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+* Latency and size metrics of the semantic map conversions
+*
+* Latencies are kept per conversion stage in a rolling window of the most
+* recent samples, from which percentiles are computed on demand. All
+* methods are safe to be called from concurrent conversions.
+*
+*/
+
+public class SemanticMapMetrics {
+  public final static String QUEUE = "queue";
+  public final static String MAPPING = "mapping";
+  public final static String ONTOLOGY = "ontology";
+  public final static String IMPORTS = "imports";
+  public final static String PROPERTIES = "properties";
+  public final static String SPATIAL = "spatial";
+  public final static String SERIALIZATION = "serialization";
+  public final static String TOTAL = "total";
+
+  public final static String[] STAGES = {QUEUE, MAPPING, ONTOLOGY, IMPORTS,
+    PROPERTIES, SPATIAL, SERIALIZATION, TOTAL};
+
+  public final static int WINDOW = 1024;
+
+  /**
+  * Latency windows by stage
+  */
+  protected LinkedHashMap<String, Window> latencies = new
+    LinkedHashMap<String, Window>();
+
+  protected long requests = 0;
+  protected long failures = 0;
+  protected long accepted = 0;
+  protected long rejected = 0;
+  protected long timeouts = 0;
+  protected long lastAxioms = 0;
+  protected long axioms = 0;
+  protected long lastBytes = 0;
+  protected long bytes = 0;
+  protected long danglingReferences = 0;
+
+  public SemanticMapMetrics() {
+    this(WINDOW);
+  }
+
+  public SemanticMapMetrics(int window) {
+    for(String stage : STAGES) {
+      latencies.put(stage, new Window(window));
+    }
+  }
+
+  /**
+  * Record the latency of a conversion stage.
+  *
+  * @param stage Conversion stage
+  * @param nanos Latency in nanoseconds
+  */
+  public synchronized void record(String stage, long nanos) {
+    Window window = latencies.get(stage);
+
+    if(window == null) {
+      window = new Window(WINDOW);
+      latencies.put(stage, window);
+    }
+
+    window.add(nanos);
+  }
+
+  /**
+  * Record a completed request.
+  *
+  * @param nanos Total latency in nanoseconds
+  */
+  public synchronized void recordRequest(long nanos) {
+    record(TOTAL, nanos);
+    requests++;
+  }
+
+  /**
+  * Record a failed request.
+  */
+  public synchronized void recordFailure() {
+    failures++;
+  }
+
+  /**
+  * Record a request admitted to the conversion queue.
+  */
+  public synchronized void recordAccepted() {
+    accepted++;
+  }
+
+  /**
+  * Record a request rejected by admission control.
+  */
+  public synchronized void recordRejected() {
+    rejected++;
+  }
+
+  /**
+  * Record a request which exceeded its deadline.
+  */
+  public synchronized void recordTimeout() {
+    timeouts++;
+  }
+
+  /**
+  * Record the number of axioms of a generated map.
+  *
+  * @param count Number of axioms
+  */
+  public synchronized void recordAxioms(long count) {
+    lastAxioms = count;
+    axioms += count;
+  }
+
+  /**
+  * Record the size of a serialized map.
+  *
+  * @param count Size in bytes
+  */
+  public synchronized void recordBytes(long count) {
+    lastBytes = count;
+    bytes += count;
+  }
+
+  /**
+  * Record the number of dangling references of a map.
+  *
+  * @param count Number of dangling references
+  */
+  public synchronized void recordDanglingReferences(long count) {
+    danglingReferences += count;
+  }
+
+  /**
+  * Get the number of completed requests.
+  *
+  * @return
+  */
+  public synchronized long getRequests() {
+    return requests;
+  }
+
+  /**
+  * Get the number of failed requests.
+  *
+  * @return
+  */
+  public synchronized long getFailures() {
+    return failures;
+  }
+
+  /**
+  * Get a latency percentile of a conversion stage over the rolling
+  * window.
+  *
+  * @param stage Conversion stage
+  * @param percentile Percentile between 0 and 100
+  * @return Latency in milliseconds, or 0 if nothing was recorded
+  */
+  public synchronized double getPercentile(String stage, double
+      percentile) {
+    Window window = latencies.get(stage);
+
+    if(window != null) {
+      return window.getPercentile(percentile)*1e-6;
+    }
+    else {
+      return 0.0;
+    }
+  }
+
+  /**
+  * Get all metrics as a snapshot of names and values, in the order of
+  * the conversion stages.
+  *
+  * @return
+  */
+  public synchronized LinkedHashMap<String, String> getValues() {
+    LinkedHashMap<String, String> values = new
+      LinkedHashMap<String, String>();
+
+    values.put("requests", Long.toString(requests));
+    values.put("failures", Long.toString(failures));
+    values.put("accepted", Long.toString(accepted));
+    values.put("rejected", Long.toString(rejected));
+    values.put("timeouts", Long.toString(timeouts));
+
+    for(String stage : latencies.keySet()) {
+      Window window = latencies.get(stage);
+      if(window.getCount() > 0) {
+        values.put(stage+" p50 [ms]", String.format("%.3f",
+          window.getPercentile(50.0)*1e-6));
+        values.put(stage+" p99 [ms]", String.format("%.3f",
+          window.getPercentile(99.0)*1e-6));
+      }
+    }
+
+    values.put("axioms", Long.toString(lastAxioms));
+    values.put("axioms total", Long.toString(axioms));
+    values.put("bytes", Long.toString(lastBytes));
+    values.put("bytes total", Long.toString(bytes));
+    values.put("dangling references", Long.toString(danglingReferences));
+
+    return values;
+  }
+
+  /**
+  * All metrics, one name and value per line.
+  */
+  @Override
+  public String toString() {
+    return toString(getValues());
+  }
+
+  /**
+  * Format metrics, one name and value per line.
+  *
+  * @param values Names and values of the metrics
+  * @return Formatted metrics
+  */
+  public static String toString(Map<String, String> values) {
+    StringBuilder string = new StringBuilder();
+
+    for(String name : values.keySet()) {
+      string.append(name).append(": ").append(values.get(name)).append(
+        "\n");
+    }
+
+    return string.toString();
+  }
+
+  /**
+  * Get the size of a string in UTF-8 encoding, without encoding it.
+  *
+  * @param string String
+  * @return Size in bytes
+  */
+  public static long getUTF8Length(CharSequence string) {
+    long length = 0;
+
+    for(int i = 0; i < string.length(); i++) {
+      char c = string.charAt(i);
+
+      if(c < 0x80) {
+        length += 1;
+      }
+      else if(c < 0x800) {
+        length += 2;
+      }
+      else if(Character.isHighSurrogate(c)) {
+        length += 4;
+        i++;
+      }
+      else {
+        length += 3;
+      }
+    }
+
+    return length;
+  }
+
+  /**
+  * Rolling window of latency samples
+  */
+  protected static class Window {
+    protected long[] samples;
+    protected int next = 0;
+    protected long count = 0;
+
+    public Window(int size) {
+      this.samples = new long[Math.max(1, size)];
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public void add(long sample) {
+      samples[next] = sample;
+      next = (next+1) % samples.length;
+      count++;
+    }
+
+    public long getPercentile(double percentile) {
+      int size = (int) Math.min(count, samples.length);
+
+      if(size == 0) {
+        return 0;
+      }
+
+      long[] sorted = Arrays.copyOf(samples, size);
+      Arrays.sort(sorted);
+
+      int index = (int) Math.ceil(percentile/100.0*size)-1;
+      return sorted[Math.max(0, Math.min(size-1, index))];
+    }
+  }
+}
@@ -0,0 +1,243 @@
+package org.knowrob.map;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.coode.owlapi.rdf.model.*;
+import org.coode.owlapi.rdf.renderer.RDFRendererBase;
+
+import org.semanticweb.owlapi.io.RDFOntologyFormat;
+import org.semanticweb.owlapi.model.*;
+import org.semanticweb.owlapi.util.AbstractOWLOntologyStorer;
+
+/**
+* Storer writing ontologies as N-Triples, which the OWL API does not
+* provide
+*
+* Triples are rendered one per line from the RDF graph of the ontology,
+* with document-wide unique blank node labels.
+*
+*/
+
+public class SemanticMapNTriplesStorer extends AbstractOWLOntologyStorer {
+  private static final long serialVersionUID = 1L;
+
+  @Override
+  public boolean canStoreOntology(OWLOntologyFormat format) {
+    return format instanceof Format;
+  }
+
+  @Override
+  protected void storeOntology(OWLOntologyManager manager, OWLOntology
+      ontology, Writer writer, OWLOntologyFormat format) throws
+      OWLOntologyStorageException {
+    try {
+      new Renderer(ontology, manager, writer, format).render();
+      writer.flush();
+    }
+    catch(IOException e) {
+      throw new OWLOntologyStorageException(e);
+    }
+  }
+
+  @Override
+  protected void storeOntology(OWLOntology ontology, Writer writer,
+      OWLOntologyFormat format) throws OWLOntologyStorageException {
+    storeOntology(ontology.getOWLOntologyManager(), ontology, writer,
+      format);
+  }
+
+  /**
+  * N-Triples ontology format
+  */
+  public static class Format extends RDFOntologyFormat {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public String toString() {
+      return "N-Triples";
+    }
+  }
+
+  /**
+  * Renderer writing the triples of each subject, followed by the triples
+  * of the blank nodes it refers to
+  */
+  protected static class Renderer extends RDFRendererBase {
+    protected Writer writer;
+
+    /**
+    * Graph the blank node labels belong to
+    */
+    protected RDFGraph graph;
+
+    /**
+    * Blank node labels of the current graph
+    */
+    protected HashMap<RDFResourceNode, String> blankNodes = new
+      HashMap<RDFResourceNode, String>();
+
+    /**
+    * Blank nodes of the current graph whose triples have been written
+    */
+    protected HashSet<RDFResourceNode> renderedBlankNodes = new
+      HashSet<RDFResourceNode>();
+
+    protected long nextBlankNode = 0;
+
+    public Renderer(OWLOntology ontology, OWLOntologyManager manager,
+        Writer writer, OWLOntologyFormat format) {
+      super(ontology, manager, format);
+      this.writer = writer;
+    }
+
+    @Override
+    public void render(RDFResourceNode node) throws IOException {
+      if(getGraph() != graph) {
+        // blank node identifiers are only unique within a graph
+        graph = getGraph();
+        blankNodes.clear();
+        renderedBlankNodes.clear();
+      }
+
+      if(node.isAnonymous() && !renderedBlankNodes.add(node)) {
+        return;
+      }
+
+      for(RDFTriple triple : graph.getTriplesForSubject(node, false)) {
+        if(!accept(triple)) {
+          continue;
+        }
+        writer.write(toString(triple.getSubject()));
+        writer.write(" ");
+        writer.write(toString(triple.getProperty()));
+        writer.write(" ");
+        writer.write(toString(triple.getObject()));
+        writer.write(" .\n");
+      }
+
+      for(RDFTriple triple : graph.getTriplesForSubject(node, false)) {
+        if(triple.getObject().isAnonymous() &&
+            !renderedBlankNodes.contains(triple.getObject())) {
+          render((RDFResourceNode) triple.getObject());
+        }
+      }
+    }
+
+    /**
+    * Decide whether a triple is written, which is the case for all
+    * triples unless overridden.
+    *
+    * @param triple Triple of the current graph
+    * @return True if the triple is written
+    */
+    protected boolean accept(RDFTriple triple) {
+      return true;
+    }
+
+    protected String getBlankNodeLabel(RDFResourceNode node) {
+      String label = blankNodes.get(node);
+
+      if(label == null) {
+        label = "_:b" + (nextBlankNode++);
+        blankNodes.put(node, label);
+      }
+
+      return label;
+    }
+
+    protected String toString(RDFNode node) {
+      if(node.isLiteral()) {
+        RDFLiteralNode literal = (RDFLiteralNode) node;
+        String string = "\"" + escape(literal.getLiteral()) + "\"";
+
+        if((literal.getLang() != null) && !literal.getLang().isEmpty()) {
+          return string + "@" + literal.getLang();
+        }
+        else if(literal.isTyped()) {
+          return string + "^^<" + literal.getDatatype() + ">";
+        }
+        else {
+          return string;
+        }
+      }
+      else if(node.isAnonymous()) {
+        return getBlankNodeLabel((RDFResourceNode) node);
+      }
+      else {
+        return "<" + node.getIRI() + ">";
+      }
+    }
+
+    protected static String escape(String string) {
+      StringBuilder escaped = new StringBuilder(string.length());
+
+      for(int i = 0; i < string.length(); i++) {
+        char c = string.charAt(i);
+
+        if(c == '\\') {
+          escaped.append("\\\\");
+        }
+        else if(c == '"') {
+          escaped.append("\\\"");
+        }
+        else if(c == '\n') {
+          escaped.append("\\n");
+        }
+        else if(c == '\r') {
+          escaped.append("\\r");
+        }
+        else {
+          escaped.append(c);
+        }
+      }
+
+      return escaped.toString();
+    }
+
+    @Override
+    protected void beginDocument() throws IOException {
+    }
+
+    @Override
+    protected void endDocument() throws IOException {
+      writer.flush();
+    }
+
+    @Override
+    protected void writeAnnotationPropertyComment(OWLAnnotationProperty
+        prop) throws IOException {
+    }
+
+    @Override
+    protected void writeDataPropertyComment(OWLDataProperty prop) throws
+        IOException {
+    }
+
+    @Override
+    protected void writeObjectPropertyComment(OWLObjectProperty prop) throws
+        IOException {
+    }
+
+    @Override
+    protected void writeClassComment(OWLClass cls) throws IOException {
+    }
+
+    @Override
+    protected void writeDatatypeComment(OWLDatatype datatype) throws
+        IOException {
+    }
+
+    @Override
+    protected void writeIndividualComments(OWLNamedIndividual ind) throws
+        IOException {
+    }
+
+    @Override
+    protected void writeBanner(String name) throws IOException {
+    }
+  }
+}
@@ -0,0 +1,478 @@
+package org.knowrob.map;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.zip.GZIPOutputStream;
+
+import org.coode.owlapi.turtle.TurtleOntologyFormat;
+
+import org.semanticweb.owlapi.io.OWLFunctionalSyntaxOntologyFormat;
+import org.semanticweb.owlapi.io.RDFXMLOntologyFormat;
+import org.semanticweb.owlapi.io.StreamDocumentTarget;
+import org.semanticweb.owlapi.model.*;
+import org.semanticweb.owlapi.vocab.PrefixOWLOntologyFormat;
+
+/**
+* Writer streaming the serialization of generated semantic maps to files
+* or output streams
+*
+* The serialized ontology is never held in memory as a whole. Instead,
+* the writer reports the size and checksum of what has been written.
+* Ontologies may be written in RDF/XML, Turtle, N-Triples or OWL
+* functional syntax, optionally compressed with gzip. Content rendered
+* by the caller, such as streamed map descriptions, is written alike.
+*
+*/
+
+public class SemanticMapOWLWriter {
+  public final static String CHECKSUM_ALGORITHM = "SHA-1";
+
+  public final static String RDFXML = "rdfxml";
+  public final static String TURTLE = "turtle";
+  public final static String NTRIPLES = "ntriples";
+  public final static String FUNCTIONAL = "functional";
+
+  public final static String[] FORMATS = {RDFXML, TURTLE, NTRIPLES,
+    FUNCTIONAL};
+
+  /**
+  * Checksum algorithm
+  */
+  protected String checksumAlgorithm;
+
+  public SemanticMapOWLWriter() {
+    this.checksumAlgorithm = CHECKSUM_ALGORITHM;
+  }
+
+  /**
+  * Get checksum algorithm.
+  *
+  * @return
+  */
+  public String getChecksumAlgorithm() {
+    return checksumAlgorithm;
+  }
+
+  /**
+  * Set checksum algorithm.
+  *
+  * @param checksumAlgorithm
+  */
+  public void setChecksumAlgorithm(String checksumAlgorithm) {
+    this.checksumAlgorithm = checksumAlgorithm;
+  }
+
+  /**
+  * Write an ontology to a file, using the ontology's format.
+  *
+  * @param ontology Ontology to be written
+  * @param file Output file, parent directories are created if necessary
+  * @return Path, size and checksum of the written file
+  */
+  public Output write(OWLOntology ontology, File file) throws
+      OWLOntologyStorageException {
+    return write(ontology, file, null, false);
+  }
+
+  /**
+  * Write an ontology to a file.
+  *
+  * @param ontology Ontology to be written
+  * @param file Output file, parent directories are created if necessary
+  * @param format Format name, or null for the ontology's format
+  * @param compress Compress the output with gzip
+  * @return Path, format, sizes and checksum of the written file
+  */
+  public Output write(OWLOntology ontology, File file, String format,
+      boolean compress) throws OWLOntologyStorageException {
+    return write(getContent(ontology, format), file, compress);
+  }
+
+  /**
+  * Write content rendered by the caller to a file.
+  *
+  * @param content Content to be written
+  * @param file Output file, parent directories are created if necessary
+  * @param compress Compress the output with gzip
+  * @return Path, format, sizes and checksum of the written file
+  */
+  public Output write(Content content, File file, boolean compress) throws
+      OWLOntologyStorageException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if((parent != null) && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new OWLOntologyStorageException("Failed to create directory " +
+        parent);
+    }
+
+    OutputStream out = null;
+    try {
+      out = new BufferedOutputStream(new FileOutputStream(file));
+      Output output = write(content, out, compress);
+      output.path = file.getAbsolutePath();
+
+      return output;
+    }
+    catch(IOException e) {
+      throw new OWLOntologyStorageException(e);
+    }
+    finally {
+      if(out != null) {
+        try {
+          out.close();
+        }
+        catch(IOException e) {
+          System.out.println(e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+  * Write an ontology to an output stream, using the ontology's format.
+  * The stream is flushed but not closed.
+  *
+  * @param ontology Ontology to be written
+  * @param out Output stream
+  * @return Size and checksum of the written data
+  */
+  public Output write(OWLOntology ontology, OutputStream out) throws
+      OWLOntologyStorageException {
+    return write(ontology, out, null, false);
+  }
+
+  /**
+  * Write an ontology to an output stream. The stream is flushed but not
+  * closed.
+  *
+  * @param ontology Ontology to be written
+  * @param out Output stream
+  * @param format Format name, or null for the ontology's format
+  * @param compress Compress the output with gzip
+  * @return Format, sizes and checksum of the written data, where the
+  *   checksum is computed over the compressed data if compressed
+  */
+  public Output write(OWLOntology ontology, OutputStream out, String
+      format, boolean compress) throws OWLOntologyStorageException {
+    return write(getContent(ontology, format), out, compress);
+  }
+
+  /**
+  * Write content rendered by the caller to an output stream. The stream
+  * is flushed but not closed.
+  *
+  * @param content Content to be written
+  * @param out Output stream
+  * @param compress Compress the output with gzip
+  * @return Format, sizes and checksum of the written data, where the
+  *   checksum is computed over the compressed data if compressed
+  */
+  public Output write(Content content, OutputStream out, boolean compress)
+      throws OWLOntologyStorageException {
+    MessageDigest digest = null;
+
+    try {
+      digest = MessageDigest.getInstance(checksumAlgorithm);
+    }
+    catch(NoSuchAlgorithmException e) {
+      throw new OWLOntologyStorageException(e);
+    }
+
+    CountingOutputStream counter = new CountingOutputStream(
+      new DigestOutputStream(out, digest));
+    CountingOutputStream uncompressedCounter = counter;
+    GZIPOutputStream gzip = null;
+
+    try {
+      if(compress) {
+        gzip = new GZIPOutputStream(counter);
+        uncompressedCounter = new CountingOutputStream(gzip);
+      }
+
+      content.write(uncompressedCounter);
+
+      uncompressedCounter.flush();
+      if(gzip != null) {
+        gzip.finish();
+      }
+      counter.flush();
+    }
+    catch(IOException e) {
+      throw new OWLOntologyStorageException(e);
+    }
+
+    Output output = new Output();
+    output.format = content.getFormat();
+    output.compressed = compress;
+    output.size = counter.getCount();
+    output.uncompressedSize = uncompressedCounter.getCount();
+    output.checksum = toHexString(digest.digest());
+
+    return output;
+  }
+
+  /**
+  * Get the content of an ontology serialized in a given format.
+  *
+  * @param ontology Ontology to be written
+  * @param format Format name, or null for the ontology's format
+  * @return Content of the ontology
+  */
+  public static Content getContent(final OWLOntology ontology, String
+      format) {
+    final OWLOntologyManager manager = ontology.getOWLOntologyManager();
+    final OWLOntologyFormat ontologyFormat = getFormat(ontology, format);
+
+    return new Content() {
+      @Override
+      public String getFormat() {
+        return getFormatName(ontologyFormat);
+      }
+
+      @Override
+      public void write(OutputStream out) throws IOException,
+          OWLOntologyStorageException {
+        if(ontologyFormat instanceof SemanticMapNTriplesStorer.Format) {
+          new SemanticMapNTriplesStorer().storeOntology(manager, ontology,
+            new StreamDocumentTarget(out), ontologyFormat);
+        }
+        else {
+          manager.saveOntology(ontology, ontologyFormat, out);
+        }
+      }
+    };
+  }
+
+  /**
+  * Get the ontology format of a format name, carrying over the prefixes
+  * of the ontology's format.
+  *
+  * @param ontology Ontology to be written
+  * @param format Format name, or null for the ontology's format
+  * @return Ontology format
+  */
+  public static OWLOntologyFormat getFormat(OWLOntology ontology, String
+      format) {
+    OWLOntologyFormat ontologyFormat = ontology.getOWLOntologyManager().
+      getOntologyFormat(ontology);
+
+    if((format == null) || format.isEmpty()) {
+      return ontologyFormat;
+    }
+
+    PrefixOWLOntologyFormat prefixFormat = null;
+
+    if(format.equals(RDFXML)) {
+      prefixFormat = new RDFXMLOntologyFormat();
+    }
+    else if(format.equals(TURTLE)) {
+      prefixFormat = new TurtleOntologyFormat();
+    }
+    else if(format.equals(NTRIPLES)) {
+      prefixFormat = new SemanticMapNTriplesStorer.Format();
+    }
+    else if(format.equals(FUNCTIONAL)) {
+      prefixFormat = new OWLFunctionalSyntaxOntologyFormat();
+    }
+    else {
+      throw new IllegalArgumentException("Unknown output format " +
+        format);
+    }
+
+    if(ontologyFormat instanceof PrefixOWLOntologyFormat) {
+      prefixFormat.copyPrefixesFrom((PrefixOWLOntologyFormat)
+        ontologyFormat);
+    }
+
+    return prefixFormat;
+  }
+
+  /**
+  * Get the format name of an ontology format.
+  *
+  * @param format Ontology format
+  * @return Format name, or the format's description if it has none
+  */
+  public static String getFormatName(OWLOntologyFormat format) {
+    if(format instanceof SemanticMapNTriplesStorer.Format) {
+      return NTRIPLES;
+    }
+    else if(format instanceof RDFXMLOntologyFormat) {
+      return RDFXML;
+    }
+    else if(format instanceof TurtleOntologyFormat) {
+      return TURTLE;
+    }
+    else if(format instanceof OWLFunctionalSyntaxOntologyFormat) {
+      return FUNCTIONAL;
+    }
+    else {
+      return format.toString();
+    }
+  }
+
+  /**
+  * Get the file extension of a format name.
+  *
+  * @param format Format name, or null for the ontology's format
+  * @param compress Whether the output is compressed with gzip
+  * @return File extension including the leading dot
+  */
+  public static String getExtension(String format, boolean compress) {
+    String extension = ".owl";
+
+    if(TURTLE.equals(format)) {
+      extension = ".ttl";
+    }
+    else if(NTRIPLES.equals(format)) {
+      extension = ".nt";
+    }
+    else if(FUNCTIONAL.equals(format)) {
+      extension = ".ofn";
+    }
+
+    return compress ? extension + ".gz" : extension;
+  }
+
+  protected static String toHexString(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(2*bytes.length);
+
+    for(byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+      hex.append(Character.forDigit(b & 0xF, 16));
+    }
+
+    return hex.toString();
+  }
+
+  /**
+  * Content rendered directly to the output of the writer
+  */
+  public static interface Content {
+    /**
+    * Get the format name of the content.
+    *
+    * @return
+    */
+    public String getFormat();
+
+    /**
+    * Render the content to an output stream.
+    *
+    * @param out Output stream
+    */
+    public void write(OutputStream out) throws IOException,
+      OWLOntologyStorageException;
+  }
+
+  /**
+  * Description of written output
+  */
+  public static class Output {
+    protected String path = "";
+    protected String format = "";
+    protected boolean compressed = false;
+    protected long size = 0;
+    protected long uncompressedSize = 0;
+    protected String checksum = "";
+
+    /**
+    * Get path, empty if the output was not written to a file.
+    *
+    * @return
+    */
+    public String getPath() {
+      return path;
+    }
+
+    /**
+    * Get format name.
+    *
+    * @return
+    */
+    public String getFormat() {
+      return format;
+    }
+
+    /**
+    * Is compressed with gzip.
+    *
+    * @return
+    */
+    public boolean isCompressed() {
+      return compressed;
+    }
+
+    /**
+    * Get size in bytes as written, i.e., compressed if compressed.
+    *
+    * @return
+    */
+    public long getSize() {
+      return size;
+    }
+
+    /**
+    * Get size in bytes before compression.
+    *
+    * @return
+    */
+    public long getUncompressedSize() {
+      return uncompressedSize;
+    }
+
+    /**
+    * Get checksum in hexadecimal notation.
+    *
+    * @return
+    */
+    public String getChecksum() {
+      return checksum;
+    }
+
+    /**
+    * Path, size, checksum, format and uncompressed size separated by
+    * spaces, where the format is suffixed with +gzip if compressed.
+    */
+    @Override
+    public String toString() {
+      return path + " " + size + " " + checksum + " " + format +
+        (compressed ? "+gzip" : "") + " " + uncompressedSize;
+    }
+  }
+
+  /**
+  * Output stream counting the bytes written through it
+  */
+  protected static class CountingOutputStream extends FilterOutputStream {
+    protected long count = 0;
+
+    public CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+}
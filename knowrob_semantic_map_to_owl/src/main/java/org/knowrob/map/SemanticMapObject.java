@@ -1,5 +1,7 @@
 package org.knowrob.map;
 
+import javax.vecmath.Matrix4d;
+
 import org.knowrob.owl.ObjectInstance;
 import org.knowrob.owl.OWLIndividual;
 
@@ -14,6 +16,17 @@ public class SemanticMapObject extends ObjectInstance {
   */
   protected String frame;
   
+  /**
+  * Columns holding the pose of the object, or null if the pose matrix
+  * has been set or computed
+  */
+  protected SemanticMapPoses poses;
+  
+  /**
+  * Index of the object in the pose columns
+  */
+  protected int poseIndex = -1;
+  
   /**
   * Constructor. Set the IRI and optionally a label. If none is given, 
   * it is initialized with the IRI's short name.
@@ -113,5 +126,53 @@ public class SemanticMapObject extends ObjectInstance {
   public void setFrame(String frame) {
     this.frame = frame;
   }
+  
+  /**
+  * Set the pose of the object to a row of pose columns. The pose matrix
+  * is only computed once it is requested.
+  *
+  * @param poses Pose columns
+  * @param index Index of the object in the pose columns
+  */
+  public synchronized void setPose(SemanticMapPoses poses, int index) {
+    this.poses = poses;
+    this.poseIndex = index;
+  }
+  
+  /**
+  * Get the index of the object in the pose columns.
+  *
+  * @return Index, or -1 if the pose was not read into pose columns
+  */
+  public int getPoseIndex() {
+    return poseIndex;
+  }
+  
+  /**
+  * Get the pose matrix, computing it from the pose columns if necessary.
+  *
+  * @return
+  */
+  @Override
+  public synchronized Matrix4d getPoseMatrix() {
+    if(poses != null) {
+      super.setPoseMatrix(poses.getPoseMatrix(poseIndex, new Matrix4d()));
+      poses = null;
+    }
+    
+    return super.getPoseMatrix();
+  }
+  
+  /**
+  * Set the pose matrix, replacing the pose set from pose columns.
+  *
+  * @param pose_matrix
+  */
+  @Override
+  public synchronized void setPoseMatrix(Matrix4d pose_matrix) {
+    poses = null;
+    poseIndex = -1;
+    super.setPoseMatrix(pose_matrix);
+  }
 }
 
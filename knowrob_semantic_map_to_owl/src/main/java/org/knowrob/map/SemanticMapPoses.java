@@ -0,0 +1,204 @@
+package org.knowrob.map;
+
+import java.util.Arrays;
+
+import javax.vecmath.Matrix4d;
+
+import knowrob_semantic_map_msgs.*;
+
+/**
+* Primitive columns of the poses and sizes of the map objects created
+* during a single conversion
+*
+* Positions, orientations and sizes are read from the map messages into
+* flat arrays indexed by object, instead of into vectors and quaternions
+* per object. Pose matrices and bounding boxes are computed from the
+* columns on demand.
+*
+*/
+
+public class SemanticMapPoses {
+  public final static int CAPACITY = 64;
+
+  /**
+  * Positions as x, y, z per object
+  */
+  protected double[] positions;
+
+  /**
+  * Orientation quaternions as x, y, z, w per object
+  */
+  protected double[] orientations;
+
+  /**
+  * Sizes as x, y, z per object
+  */
+  protected double[] sizes;
+
+  protected int size = 0;
+
+  public SemanticMapPoses() {
+    this(CAPACITY);
+  }
+
+  public SemanticMapPoses(int capacity) {
+    capacity = Math.max(1, capacity);
+
+    this.positions = new double[3*capacity];
+    this.orientations = new double[4*capacity];
+    this.sizes = new double[3*capacity];
+  }
+
+  /**
+  * Get the number of objects.
+  *
+  * @return
+  */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+  * Read the pose and size of a map object message into the columns.
+  *
+  * @param smo Map object message
+  * @return Index of the object in the columns
+  */
+  public int add(SemMapObject smo) {
+    if(3*size == positions.length) {
+      positions = Arrays.copyOf(positions, 2*positions.length);
+      orientations = Arrays.copyOf(orientations, 2*orientations.length);
+      sizes = Arrays.copyOf(sizes, 2*sizes.length);
+    }
+
+    int p = 3*size;
+    int o = 4*size;
+
+    positions[p] = smo.getPose().getPosition().getX();
+    positions[p+1] = smo.getPose().getPosition().getY();
+    positions[p+2] = smo.getPose().getPosition().getZ();
+
+    orientations[o] = smo.getPose().getOrientation().getX();
+    orientations[o+1] = smo.getPose().getOrientation().getY();
+    orientations[o+2] = smo.getPose().getOrientation().getZ();
+    orientations[o+3] = smo.getPose().getOrientation().getW();
+
+    sizes[p] = smo.getSize().getX();
+    sizes[p+1] = smo.getSize().getY();
+    sizes[p+2] = smo.getSize().getZ();
+
+    return size++;
+  }
+
+  /**
+  * Get a position coordinate of an object.
+  *
+  * @param index Index of the object
+  * @param axis Axis between 0 (x) and 2 (z)
+  * @return Position coordinate
+  */
+  public double getPosition(int index, int axis) {
+    return positions[3*index+axis];
+  }
+
+  /**
+  * Get an orientation quaternion component of an object.
+  *
+  * @param index Index of the object
+  * @param component Component between 0 (x) and 3 (w)
+  * @return Quaternion component
+  */
+  public double getOrientation(int index, int component) {
+    return orientations[4*index+component];
+  }
+
+  /**
+  * Get a size coordinate of an object.
+  *
+  * @param index Index of the object
+  * @param axis Axis between 0 (x) and 2 (z)
+  * @return Size coordinate
+  */
+  public double getSize(int index, int axis) {
+    return sizes[3*index+axis];
+  }
+
+  /**
+  * Compute the pose matrix of an object from its position and
+  * orientation, as a rigid transformation with unit scale.
+  *
+  * @param index Index of the object
+  * @param matrix Matrix the pose is stored in
+  * @return The matrix
+  */
+  public Matrix4d getPoseMatrix(int index, Matrix4d matrix) {
+    int p = 3*index;
+    int o = 4*index;
+
+    double x = orientations[o];
+    double y = orientations[o+1];
+    double z = orientations[o+2];
+    double w = orientations[o+3];
+
+    matrix.m00 = 1.0-2.0*y*y-2.0*z*z;
+    matrix.m01 = 2.0*(x*y-w*z);
+    matrix.m02 = 2.0*(x*z+w*y);
+    matrix.m03 = positions[p];
+
+    matrix.m10 = 2.0*(x*y+w*z);
+    matrix.m11 = 1.0-2.0*x*x-2.0*z*z;
+    matrix.m12 = 2.0*(y*z-w*x);
+    matrix.m13 = positions[p+1];
+
+    matrix.m20 = 2.0*(x*z-w*y);
+    matrix.m21 = 2.0*(y*z+w*x);
+    matrix.m22 = 1.0-2.0*x*x-2.0*y*y;
+    matrix.m23 = positions[p+2];
+
+    matrix.m30 = 0.0;
+    matrix.m31 = 0.0;
+    matrix.m32 = 0.0;
+    matrix.m33 = 1.0;
+
+    return matrix;
+  }
+
+  /**
+  * Compute the axis-aligned bounding box of an object, i.e., of its box
+  * of the object's size centered at its pose.
+  *
+  * @param index Index of the object
+  * @param min Array the minimum corner is stored in
+  * @param max Array the maximum corner is stored in
+  * @param offset Offset of the corners in the arrays
+  */
+  public void getBounds(int index, double[] min, double[] max, int offset) {
+    int p = 3*index;
+    int o = 4*index;
+
+    double x = orientations[o];
+    double y = orientations[o+1];
+    double z = orientations[o+2];
+    double w = orientations[o+3];
+
+    double hx = 0.5*Math.abs(sizes[p]);
+    double hy = 0.5*Math.abs(sizes[p+1]);
+    double hz = 0.5*Math.abs(sizes[p+2]);
+
+    // half extents of the rotated box along the axes of the map frame
+    double ex = Math.abs(1.0-2.0*y*y-2.0*z*z)*hx+
+      Math.abs(2.0*(x*y-w*z))*hy+Math.abs(2.0*(x*z+w*y))*hz;
+    double ey = Math.abs(2.0*(x*y+w*z))*hx+
+      Math.abs(1.0-2.0*x*x-2.0*z*z)*hy+Math.abs(2.0*(y*z-w*x))*hz;
+    double ez = Math.abs(2.0*(x*z-w*y))*hx+
+      Math.abs(2.0*(y*z+w*x))*hy+Math.abs(1.0-2.0*x*x-2.0*y*y)*hz;
+
+    min[offset] = positions[p]-ex;
+    min[offset+1] = positions[p+1]-ey;
+    min[offset+2] = positions[p+2]-ez;
+
+    max[offset] = positions[p]+ex;
+    max[offset+1] = positions[p+1]+ey;
+    max[offset+2] = positions[p+2]+ez;
+  }
+}
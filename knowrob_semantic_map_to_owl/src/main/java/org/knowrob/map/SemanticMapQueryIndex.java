@@ -0,0 +1,395 @@
+package org.knowrob.map;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import knowrob_semantic_map_msgs.*;
+
+/**
+* Indexed in-memory view of the objects of a converted semantic map
+*
+* Objects are indexed by type, by their partOf hierarchy, and by
+* position in a uniform grid, such that queries are answered without
+* serializing or reasoning over the OWL description. The view is
+* immutable once created and may be queried concurrently.
+*
+* Queries are conjunctions of terms separated by "and":
+*   type T        objects whose type has the short name T
+*   partof X      direct parts of object X
+*   under X       direct and indirect parts of object X
+*   near X Y Z R  objects within distance R of position (X, Y, Z)
+* The first term selects the candidates and the others filter them, so
+* the most selective term should come first.
+*
+*/
+
+public class SemanticMapQueryIndex {
+  public final static double CELL_SIZE = 1.0;
+
+  /**
+  * Identifier of the map
+  */
+  protected String mapId;
+
+  /**
+  * Namespace of the map, resolving references to its objects
+  */
+  protected String namespace;
+
+  /**
+  * Identifiers, short type names, and parent indices of the objects
+  */
+  protected String[] ids;
+  protected String[] types;
+  protected int[] parents;
+
+  /**
+  * Poses as x, y, z, qx, qy, qz, qw per object
+  */
+  protected double[] poses;
+
+  /**
+  * Object indices by identifier
+  */
+  protected HashMap<String, Integer> indices = new
+    HashMap<String, Integer>();
+
+  /**
+  * Object indices by short type name
+  */
+  protected HashMap<String, ArrayList<Integer>> typeIndex = new
+    HashMap<String, ArrayList<Integer>>();
+
+  /**
+  * Indices of the direct parts by object index
+  */
+  protected HashMap<Integer, ArrayList<Integer>> partIndex = new
+    HashMap<Integer, ArrayList<Integer>>();
+
+  /**
+  * Object indices by grid cell of their position
+  */
+  protected HashMap<Long, ArrayList<Integer>> gridIndex = new
+    HashMap<Long, ArrayList<Integer>>();
+
+  protected double cellSize;
+
+  public SemanticMapQueryIndex(String mapId, String namespace, SemMap map) {
+    this(mapId, namespace, map, CELL_SIZE);
+  }
+
+  public SemanticMapQueryIndex(String mapId, String namespace, SemMap map,
+      double cellSize) {
+    this.mapId = mapId;
+    this.namespace = namespace;
+    this.cellSize = (cellSize > 0.0) ? cellSize : CELL_SIZE;
+
+    List<SemMapObject> smos = map.getObjects();
+    int size = smos.size();
+
+    ids = new String[size];
+    types = new String[size];
+    parents = new int[size];
+    poses = new double[7*size];
+
+    for(int i = 0; i < size; i++) {
+      SemMapObject smo = smos.get(i);
+
+      ids[i] = smo.getId();
+      types[i] = getShortName(smo.getType());
+      indices.put(ids[i], i);
+
+      int p = 7*i;
+      poses[p] = smo.getPose().getPosition().getX();
+      poses[p+1] = smo.getPose().getPosition().getY();
+      poses[p+2] = smo.getPose().getPosition().getZ();
+      poses[p+3] = smo.getPose().getOrientation().getX();
+      poses[p+4] = smo.getPose().getOrientation().getY();
+      poses[p+5] = smo.getPose().getOrientation().getZ();
+      poses[p+6] = smo.getPose().getOrientation().getW();
+
+      getList(typeIndex, types[i]).add(i);
+      getList(gridIndex, getCellKey(poses[p], poses[p+1], poses[p+2])).
+        add(i);
+    }
+
+    // link the parts once all objects are indexed, resolving their
+    // references as the conversion does
+    for(int i = 0; i < size; i++) {
+      Integer parent = getIndex(smos.get(i).getPartOf());
+
+      parents[i] = (parent != null) ? parent : -1;
+      if((parent != null) && (parent != i)) {
+        getList(partIndex, parent).add(i);
+      }
+    }
+  }
+
+  /**
+  * Get the index of a referenced object, see
+  * SemanticMapToOWL.getReferencedId().
+  *
+  * @param reference Identifier or IRI of the object
+  * @return Index of the object, or null if it is not in the map
+  */
+  protected Integer getIndex(String reference) {
+    if(!SemanticMapToOWL.isMapReference(reference, namespace)) {
+      return null;
+    }
+
+    String id = SemanticMapToOWL.getReferencedId(indices, reference,
+      namespace);
+
+    return (id != null) ? indices.get(id) : null;
+  }
+
+  /**
+  * Get map id.
+  *
+  * @return
+  */
+  public String getMapId() {
+    return mapId;
+  }
+
+  /**
+  * Get the number of objects.
+  *
+  * @return
+  */
+  public int getSize() {
+    return ids.length;
+  }
+
+  /**
+  * Query the objects of the map.
+  *
+  * @param query Conjunction of query terms
+  * @return Indices of the matching objects
+  */
+  public List<Integer> query(String query) {
+    String[] terms = query.trim().split("\\s+and\\s+");
+    List<Integer> result = select(parseTerm(terms[0]));
+
+    for(int i = 1; i < terms.length; i++) {
+      String[] term = parseTerm(terms[i]);
+      ArrayList<Integer> filtered = new ArrayList<Integer>();
+
+      for(Integer index : result) {
+        if(matches(term, index)) {
+          filtered.add(index);
+        }
+      }
+      result = filtered;
+    }
+
+    return result;
+  }
+
+  /**
+  * Format objects one per line, as identifier, short type name, position
+  * and orientation quaternion separated by spaces.
+  *
+  * @param indices Indices of the objects
+  * @return Formatted objects
+  */
+  public String format(List<Integer> indices) {
+    StringBuilder string = new StringBuilder();
+
+    for(int index : indices) {
+      int p = 7*index;
+
+      string.append(ids[index]).append(' ').append(types[index]);
+      for(int i = 0; i < 7; i++) {
+        string.append(' ').append(poses[p+i]);
+      }
+      string.append('\n');
+    }
+
+    return string.toString();
+  }
+
+  /**
+  * Get the identifier of an object.
+  *
+  * @param index Index of the object
+  * @return
+  */
+  public String getId(int index) {
+    return ids[index];
+  }
+
+  protected List<Integer> select(String[] term) {
+    ArrayList<Integer> result = new ArrayList<Integer>();
+
+    if(term[0].equals("type")) {
+      List<Integer> objects = typeIndex.get(getShortName(term[1]));
+      if(objects != null) {
+        result.addAll(objects);
+      }
+    }
+    else if(term[0].equals("partof")) {
+      Integer parent = getIndex(term[1]);
+      if((parent != null) && partIndex.containsKey(parent)) {
+        result.addAll(partIndex.get(parent));
+      }
+    }
+    else if(term[0].equals("under")) {
+      Integer parent = getIndex(term[1]);
+      if(parent != null) {
+        boolean[] visited = new boolean[ids.length];
+        visited[parent] = true;
+        addParts(parent, visited, result);
+      }
+    }
+    else {
+      double x = Double.parseDouble(term[1]);
+      double y = Double.parseDouble(term[2]);
+      double z = Double.parseDouble(term[3]);
+      double r = Double.parseDouble(term[4]);
+
+      long[] min = {(long) Math.floor((x-r)/cellSize),
+        (long) Math.floor((y-r)/cellSize), (long) Math.floor((z-r)/cellSize)};
+      long[] max = {(long) Math.floor((x+r)/cellSize),
+        (long) Math.floor((y+r)/cellSize), (long) Math.floor((z+r)/cellSize)};
+
+      // the count is computed in double, such that it does not overflow
+      // for large radii
+      if((double) (max[0]-min[0]+1)*(max[1]-min[1]+1)*(max[2]-min[2]+1) >
+          gridIndex.size()) {
+        // the radius covers more cells than are occupied
+        for(int index = 0; index < ids.length; index++) {
+          if(matches(term, index)) {
+            result.add(index);
+          }
+        }
+        return result;
+      }
+
+      for(long i = min[0]; i <= max[0]; i++) {
+        for(long j = min[1]; j <= max[1]; j++) {
+          for(long k = min[2]; k <= max[2]; k++) {
+            List<Integer> objects = gridIndex.get(getCellKey(i, j, k));
+
+            if(objects != null) {
+              for(Integer index : objects) {
+                if(matches(term, index)) {
+                  result.add(index);
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+
+    return result;
+  }
+
+  protected boolean matches(String[] term, int index) {
+    if(term[0].equals("type")) {
+      return types[index].equals(getShortName(term[1]));
+    }
+    else if(term[0].equals("partof")) {
+      return (parents[index] >= 0) && ids[parents[index]].equals(term[1]);
+    }
+    else if(term[0].equals("under")) {
+      // walk up the hierarchy, bounded in case of cycles
+      int parent = parents[index];
+      for(int n = 0; (parent >= 0) && (n < ids.length); n++) {
+        if(ids[parent].equals(term[1])) {
+          return true;
+        }
+        parent = parents[parent];
+      }
+      return false;
+    }
+    else {
+      int p = 7*index;
+      double dx = poses[p]-Double.parseDouble(term[1]);
+      double dy = poses[p+1]-Double.parseDouble(term[2]);
+      double dz = poses[p+2]-Double.parseDouble(term[3]);
+      double r = Double.parseDouble(term[4]);
+
+      return dx*dx+dy*dy+dz*dz <= r*r;
+    }
+  }
+
+  /**
+  * Add the direct and indirect parts of an object in depth-first order,
+  * using an explicit stack, such that deep hierarchies do not overflow
+  * the call stack.
+  */
+  protected void addParts(int parent, boolean[] visited, List<Integer>
+      result) {
+    ArrayList<Integer> stack = new ArrayList<Integer>();
+    stack.add(parent);
+
+    while(!stack.isEmpty()) {
+      int index = stack.remove(stack.size()-1);
+      if(index != parent) {
+        result.add(index);
+      }
+
+      List<Integer> parts = partIndex.get(index);
+
+      if(parts != null) {
+        // pushed in reverse, such that parts are visited in order
+        for(int i = parts.size()-1; i >= 0; i--) {
+          int part = parts.get(i);
+
+          if(!visited[part]) {
+            visited[part] = true;
+            stack.add(part);
+          }
+        }
+      }
+    }
+  }
+
+  protected static String[] parseTerm(String term) {
+    String[] tokens = term.trim().split("\\s+");
+
+    if((tokens.length == 2) && (tokens[0].equals("type") ||
+        tokens[0].equals("partof") || tokens[0].equals("under"))) {
+      return tokens;
+    }
+    else if((tokens.length == 5) && tokens[0].equals("near")) {
+      for(int i = 1; i < 5; i++) {
+        Double.parseDouble(tokens[i]);
+      }
+      return tokens;
+    }
+    else {
+      throw new IllegalArgumentException("Invalid query term: " + term);
+    }
+  }
+
+  protected static String getShortName(String iri) {
+    int index = Math.max(iri.lastIndexOf('#'), iri.lastIndexOf(':'));
+
+    return (index >= 0) ? iri.substring(index+1) : iri;
+  }
+
+  protected Long getCellKey(double x, double y, double z) {
+    return getCellKey((long) Math.floor(x/cellSize),
+      (long) Math.floor(y/cellSize), (long) Math.floor(z/cellSize));
+  }
+
+  protected static Long getCellKey(long i, long j, long k) {
+    return ((i & 0x1FFFFF) << 42) | ((j & 0x1FFFFF) << 21) | (k & 0x1FFFFF);
+  }
+
+  protected static <K> ArrayList<Integer> getList(HashMap<K,
+      ArrayList<Integer>> index, K key) {
+    ArrayList<Integer> list = index.get(key);
+
+    if(list == null) {
+      list = new ArrayList<Integer>();
+      index.put(key, list);
+    }
+
+    return list;
+  }
+}
@@ -0,0 +1,206 @@
+package org.knowrob.map;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.knowrob.owl.OWLClass;
+
+/**
+* Registry of the map objects and actions created during a single
+* conversion
+*
+* Unlike the identifiers shared by all knowrob_common things, the registry
+* is released together with the conversion it belongs to, so objects,
+* poses, parts, and subactions never leak into later requests.
+*
+*/
+
+public class SemanticMapRegistry {
+  /**
+  * Map objects by IRI
+  */
+  protected HashMap<String, SemanticMapObject> objects = new
+    HashMap<String, SemanticMapObject>();
+
+  /**
+  * Map actions by IRI
+  */
+  protected HashMap<String, SemanticMapAction> actions = new
+    HashMap<String, SemanticMapAction>();
+
+  /**
+  * Classes by IRI
+  */
+  protected HashMap<String, OWLClass> classes = new
+    HashMap<String, OWLClass>();
+
+  /**
+  * Poses and sizes of the map objects
+  */
+  protected SemanticMapPoses poses = new SemanticMapPoses();
+
+  /**
+  * References to objects or actions missing from the map
+  */
+  protected ArrayList<String> danglingReferences = new ArrayList<String>();
+
+  /**
+  * SemanticMapObject factory. Return the instance created by this
+  * registry, if available, and create a new SemanticMapObject instance
+  * otherwise.
+  *
+  * @param iri Identifier of this thing.
+  * @param label Optional natural-language label.
+  * @return Instance of a {@link SemanticMapObject} with the specified IRI
+  */
+  public SemanticMapObject getSemanticMapObject(String iri, String label) {
+    SemanticMapObject res = objects.get(iri);
+
+    if(res == null) {
+      res = new SemanticMapObject(iri, label);
+      objects.put(iri, res);
+    }
+
+    return res;
+  }
+
+  /**
+  * SemanticMapObject factory. Return the instance created by this
+  * registry, if available, and create a new SemanticMapObject instance
+  * otherwise.
+  *
+  * @param iri Identifier of this thing.
+  * @return Instance of a {@link SemanticMapObject} with the specified IRI
+  */
+  public SemanticMapObject getSemanticMapObject(String iri) {
+    return getSemanticMapObject(iri, null);
+  }
+
+  /**
+  * Find the SemanticMapObject instance created by this registry.
+  *
+  * @param iri Identifier of this thing.
+  * @return Instance of a {@link SemanticMapObject} with the specified IRI,
+  *   or null if this registry has not created it
+  */
+  public SemanticMapObject findSemanticMapObject(String iri) {
+    return objects.get(iri);
+  }
+
+  /**
+  * SemanticMapAction factory. Return the instance created by this
+  * registry, if available, and create a new SemanticMapAction instance
+  * otherwise.
+  *
+  * @param iri Identifier of this thing.
+  * @param label Optional natural-language label.
+  * @return Instance of a {@link SemanticMapAction} with the specified IRI
+  */
+  public SemanticMapAction getSemanticMapAction(String iri, String label) {
+    SemanticMapAction res = actions.get(iri);
+
+    if(res == null) {
+      res = new SemanticMapAction(iri, label);
+      res.setRegistry(this);
+      actions.put(iri, res);
+    }
+
+    return res;
+  }
+
+  /**
+  * SemanticMapAction factory. Return the instance created by this
+  * registry, if available, and create a new SemanticMapAction instance
+  * otherwise.
+  *
+  * @param iri Identifier of this thing.
+  * @return Instance of a {@link SemanticMapAction} with the specified IRI
+  */
+  public SemanticMapAction getSemanticMapAction(String iri) {
+    return getSemanticMapAction(iri, null);
+  }
+
+  /**
+  * Find the SemanticMapAction instance created by this registry.
+  *
+  * @param iri Identifier of this thing.
+  * @return Instance of a {@link SemanticMapAction} with the specified IRI,
+  *   or null if this registry has not created it
+  */
+  public SemanticMapAction findSemanticMapAction(String iri) {
+    return actions.get(iri);
+  }
+
+  /**
+  * Get a class from the identifiers shared by all knowrob_common things.
+  * Classes only depend on the vocabulary used by the maps, and are looked
+  * up once per registry.
+  *
+  * @param iri Identifier of the class.
+  * @return Instance of an {@link OWLClass} with the specified IRI
+  */
+  public OWLClass getOWLClass(String iri) {
+    OWLClass res = classes.get(iri);
+
+    if(res == null) {
+      synchronized(SemanticMapRegistry.class) {
+        res = OWLClass.getOWLClass(iri);
+      }
+      classes.put(iri, res);
+    }
+
+    return res;
+  }
+
+  /**
+  * Get the poses and sizes of the map objects.
+  *
+  * @return
+  */
+  public SemanticMapPoses getPoses() {
+    return poses;
+  }
+
+  /**
+  * Record a reference to an object or action missing from the map.
+  *
+  * @param reference Description of the reference
+  */
+  public void addDanglingReference(String reference) {
+    danglingReferences.add(reference);
+  }
+
+  /**
+  * Get the references to objects or actions missing from the map.
+  *
+  * @return
+  */
+  public List<String> getDanglingReferences() {
+    return danglingReferences;
+  }
+
+  /**
+  * Allocate the poses and sizes of the map objects ahead of reading
+  * them, if their number is known.
+  *
+  * @param capacity Expected number of map objects
+  */
+  public void ensurePoseCapacity(int capacity) {
+    if(poses.getSize() == 0) {
+      poses = new SemanticMapPoses(capacity);
+    }
+  }
+
+  /**
+  * Release all objects, actions, classes, poses, and dangling references
+  * of this registry.
+  */
+  public void clear() {
+    objects.clear();
+    actions.clear();
+    classes.clear();
+    poses = new SemanticMapPoses();
+    danglingReferences.clear();
+  }
+}
@@ -0,0 +1,322 @@
+package org.knowrob.map;
+
+import java.nio.ByteOrder;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import org.ros.message.MessageSerializer;
+
+import knowrob_semantic_map_msgs.*;
+
+/**
+* Content-addressed cache of the results of map conversions
+*
+* Results are keyed by a digest of the serialized map message, such that
+* repeated requests for an unchanged map are answered without converting
+* it again. The cache is bounded in size and age of its entries, evicting
+* the least recently used entries first. Concurrent requests for the same
+* map wait for a single conversion instead of running their own.
+*
+* Conversions run on an executor of their own rather than on the thread
+* of the request starting them, such that a request giving up, e.g., on
+* its deadline, only stops waiting. A conversion is cancelled once no
+* request waits for it anymore.
+*
+*/
+
+public class SemanticMapResultCache {
+  public final static String DIGEST_ALGORITHM = "SHA-1";
+
+  public final static int MAX_ENTRIES = 16;
+  public final static long TTL = 60000;
+
+  /**
+  * Serializer of the map messages
+  */
+  protected MessageSerializer<SemMap> serializer;
+
+  /**
+  * Executor running the conversions
+  */
+  protected Executor executor;
+
+  /**
+  * Cached entries by key, in access order
+  */
+  protected LinkedHashMap<String, Entry> entries = new
+    LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+  /**
+  * Maximum number of cached entries
+  */
+  protected int maxEntries = MAX_ENTRIES;
+
+  /**
+  * Time to live of the cached entries in milliseconds, or 0 if entries
+  * do not expire
+  */
+  protected long ttl = TTL;
+
+  protected long hits = 0;
+  protected long misses = 0;
+  protected long evictions = 0;
+
+  public SemanticMapResultCache(MessageSerializer<SemMap> serializer,
+      Executor executor) {
+    this.serializer = serializer;
+    this.executor = executor;
+  }
+
+  /**
+  * Get max entries.
+  *
+  * @return
+  */
+  public synchronized int getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+  * Set max entries.
+  *
+  * @param maxEntries
+  */
+  public synchronized void setMaxEntries(int maxEntries) {
+    this.maxEntries = Math.max(1, maxEntries);
+    evict(System.currentTimeMillis());
+  }
+
+  /**
+  * Get time to live in milliseconds.
+  *
+  * @return
+  */
+  public synchronized long getTTL() {
+    return ttl;
+  }
+
+  /**
+  * Set time to live in milliseconds, 0 if entries do not expire.
+  *
+  * @param ttl
+  */
+  public synchronized void setTTL(long ttl) {
+    this.ttl = Math.max(0, ttl);
+    evict(System.currentTimeMillis());
+  }
+
+  /**
+  * Get the number of requests answered from the cache.
+  *
+  * @return
+  */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+  * Get the number of requests which required a conversion.
+  *
+  * @return
+  */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+  * Get the number of evicted entries.
+  *
+  * @return
+  */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /**
+  * Get the number of cached entries.
+  *
+  * @return
+  */
+  public synchronized int getSize() {
+    return entries.size();
+  }
+
+  /**
+  * Get the key of a map message, i.e., the hexadecimal digest of its
+  * serialization, which covers the header, namespace, prefixes, imports,
+  * objects, actions and properties of the map. The header stamp is part
+  * of the key, since the map identifier in the description includes it.
+  *
+  * @param map Semantic map message
+  * @return Key of the map message
+  */
+  public String getKey(SemMap map) {
+    MessageDigest digest = null;
+
+    try {
+      digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+    }
+    catch(NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(
+      ByteOrder.LITTLE_ENDIAN, 4096);
+    serializer.serialize(map, buffer);
+    digest.update(buffer.toByteBuffer());
+
+    return SemanticMapOWLWriter.toHexString(digest.digest());
+  }
+
+  /**
+  * Get the cached result of a key, running the conversion and caching
+  * its result if the key is not cached or its entry has expired. Failed
+  * conversions are not cached. If the calling thread is interrupted while
+  * waiting, it stops waiting, and the conversion is cancelled if no other
+  * request waits for it.
+  *
+  * @param key Key of the result
+  * @param conversion Conversion computing the result
+  * @return Result of the conversion
+  */
+  public String get(String key, Callable<String> conversion) throws
+      Exception {
+    Entry entry = null;
+    boolean run = false;
+
+    synchronized(this) {
+      long now = System.currentTimeMillis();
+      evict(now);
+
+      entry = entries.get(key);
+      if(entry != null) {
+        hits++;
+      }
+      else {
+        entry = new Entry(new FutureTask<String>(conversion), now);
+        entries.put(key, entry);
+        misses++;
+        run = true;
+
+        evict(now);
+      }
+      entry.waiters++;
+    }
+
+    try {
+      if(run) {
+        executor.execute(entry.result);
+      }
+
+      return entry.result.get();
+    }
+    catch(ExecutionException e) {
+      synchronized(this) {
+        if(entries.get(key) == entry) {
+          entries.remove(key);
+        }
+      }
+
+      if(e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      else {
+        throw e;
+      }
+    }
+    finally {
+      synchronized(this) {
+        entry.waiters--;
+
+        if((entry.waiters == 0) && !entry.result.isDone()) {
+          entry.result.cancel(true);
+
+          if(entries.get(key) == entry) {
+            entries.remove(key);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+  * Remove the entry of a key from the cache, such that the next request
+  * for the key runs its conversion.
+  *
+  * @param key Key of the result
+  */
+  public synchronized void invalidate(String key) {
+    entries.remove(key);
+  }
+
+  /**
+  * Remove all entries from the cache.
+  */
+  public synchronized void invalidateAll() {
+    entries.clear();
+  }
+
+  /**
+  * Get the cache counters as a snapshot of names and values.
+  *
+  * @return
+  */
+  public synchronized LinkedHashMap<String, String> getValues() {
+    LinkedHashMap<String, String> values = new
+      LinkedHashMap<String, String>();
+
+    values.put("cache hits", Long.toString(hits));
+    values.put("cache misses", Long.toString(misses));
+    values.put("cache evictions", Long.toString(evictions));
+    values.put("cache entries", Integer.toString(entries.size()));
+
+    return values;
+  }
+
+  /**
+  * Evict the expired entries and the least recently used entries beyond
+  * the maximum number of entries.
+  */
+  protected void evict(long now) {
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    int size = entries.size();
+
+    while(it.hasNext()) {
+      Entry entry = it.next().getValue();
+
+      if((size > maxEntries) || ((ttl > 0) && (now-entry.created > ttl))) {
+        it.remove();
+        evictions++;
+        size--;
+      }
+    }
+  }
+
+  /**
+  * Cached result with its creation time and the number of requests
+  * waiting for it
+  */
+  protected static class Entry {
+    protected FutureTask<String> result;
+    protected long created;
+    protected int waiters = 0;
+
+    public Entry(FutureTask<String> result, long created) {
+      this.result = result;
+      this.created = created;
+    }
+  }
+}
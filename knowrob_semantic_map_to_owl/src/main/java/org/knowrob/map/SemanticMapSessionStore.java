@@ -0,0 +1,368 @@
+package org.knowrob.map;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.semanticweb.owlapi.model.*;
+
+/**
+* Store of the OWL descriptions of converted maps, retained as live
+* ontologies for retrieval and re-serialization without converting the
+* maps again
+*
+* Descriptions are keyed by map namespace and identifier without the
+* map timestamp, such that maps of different floors or robots are kept
+* side by side, and a new version of a map replaces the stored one. The
+* store is bounded in the number of entries and in their estimated
+* memory, evicting the least recently used entries first. Pinned entries
+* are never evicted.
+*
+* OWLAPI builds the indices of an ontology lazily and is not safe for
+* concurrent reads. Descriptions are therefore stored once their
+* conversion has rendered them, must not be modified, and are read
+* while holding the lock of the description.
+*
+*/
+
+public class SemanticMapSessionStore {
+  public final static int MAX_ENTRIES = 8;
+  public final static long MAX_BYTES = 256000000;
+
+  /**
+  * Estimated memory of an axiom in bytes, including its entities,
+  * literals and the indices of its ontology
+  */
+  public final static long BYTES_PER_AXIOM = 512;
+
+  /**
+  * Stored entries by key, in access order
+  */
+  protected LinkedHashMap<String, Entry> entries = new
+    LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+  /**
+  * Maximum number of stored entries
+  */
+  protected int maxEntries = MAX_ENTRIES;
+
+  /**
+  * Maximum estimated memory of the stored entries in bytes, or 0 if the
+  * memory is not limited
+  */
+  protected long maxBytes = MAX_BYTES;
+
+  protected long bytes = 0;
+  protected long hits = 0;
+  protected long misses = 0;
+  protected long evictions = 0;
+
+  /**
+  * Get max entries.
+  *
+  * @return
+  */
+  public synchronized int getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+  * Set max entries.
+  *
+  * @param maxEntries
+  */
+  public synchronized void setMaxEntries(int maxEntries) {
+    this.maxEntries = Math.max(1, maxEntries);
+    evict(null);
+  }
+
+  /**
+  * Get max bytes.
+  *
+  * @return
+  */
+  public synchronized long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+  * Set max bytes, 0 if the memory is not limited.
+  *
+  * @param maxBytes
+  */
+  public synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = Math.max(0, maxBytes);
+    evict(null);
+  }
+
+  /**
+  * Get the estimated memory of the stored entries in bytes.
+  *
+  * @return
+  */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+  * Get the number of stored entries.
+  *
+  * @return
+  */
+  public synchronized int getSize() {
+    return entries.size();
+  }
+
+  /**
+  * Store the description of a map, replacing the description stored for
+  * the same key while keeping its pin. Least recently used entries are
+  * evicted beyond the limits, which may include the new entry if pinned
+  * entries exhaust the memory.
+  *
+  * @param key Key of the map
+  * @param ontology OWL description of the map
+  */
+  public synchronized void put(String key, OWLOntology ontology) {
+    put(key, ontology, null);
+  }
+
+  /**
+  * Store the description of a version of a map, see put(String,
+  * OWLOntology).
+  *
+  * @param key Key of the map
+  * @param ontology OWL description of the map
+  * @param version Version of the map, e.g., the digest of its message,
+  *   or null
+  */
+  public synchronized void put(String key, OWLOntology ontology, String
+      version) {
+    Entry entry = new Entry(ontology, System.currentTimeMillis());
+    entry.version = version;
+    Entry replaced = entries.put(key, entry);
+
+    if(replaced != null) {
+      entry.pinned = replaced.pinned;
+      bytes -= replaced.bytes;
+    }
+    bytes += entry.bytes;
+
+    evict(key);
+  }
+
+  /**
+  * Get the stored description of a map, marking it as recently used.
+  * The description must be read while holding its lock.
+  *
+  * @param key Key of the map
+  * @return OWL description, or null if no description is stored
+  */
+  public synchronized OWLOntology get(String key) {
+    Entry entry = entries.get(key);
+
+    if(entry != null) {
+      hits++;
+      return entry.ontology;
+    }
+    else {
+      misses++;
+      return null;
+    }
+  }
+
+  /**
+  * Check if the stored description of a map is of a given version.
+  *
+  * @param key Key of the map
+  * @param version Version of the map
+  * @return True if a description of the version is stored
+  */
+  public synchronized boolean isCurrent(String key, String version) {
+    Entry entry = entries.get(key);
+
+    return (entry != null) && (version != null) &&
+      version.equals(entry.version);
+  }
+
+  /**
+  * Resolve the key of a stored description from the key itself, i.e.,
+  * the map namespace followed by the map identifier, or from the map
+  * identifier alone, if the identifier is unique among the stored maps.
+  *
+  * @param name Key or identifier of the map
+  * @return Key of the description
+  */
+  public synchronized String resolve(String name) {
+    if(entries.containsKey(name)) {
+      return name;
+    }
+
+    String key = null;
+    for(String candidate : entries.keySet()) {
+      if(candidate.endsWith("#" + name)) {
+        if(key != null) {
+          throw new IllegalArgumentException("Ambiguous map: " + name);
+        }
+        key = candidate;
+      }
+    }
+
+    if(key == null) {
+      throw new IllegalArgumentException("Unknown map: " + name);
+    }
+
+    return key;
+  }
+
+  /**
+  * Pin or unpin a stored description. Unpinning may evict entries
+  * beyond the limits.
+  *
+  * @param key Key of the map
+  * @param pinned Exempt the description from eviction
+  * @return True if a description is stored for the key
+  */
+  public synchronized boolean setPinned(String key, boolean pinned) {
+    Entry entry = entries.get(key);
+
+    if(entry != null) {
+      entry.pinned = pinned;
+      evict(null);
+    }
+
+    return entry != null;
+  }
+
+  /**
+  * Remove a stored description, whether pinned or not.
+  *
+  * @param key Key of the map
+  * @return True if a description was stored for the key
+  */
+  public synchronized boolean remove(String key) {
+    Entry entry = entries.remove(key);
+
+    if(entry != null) {
+      bytes -= entry.bytes;
+    }
+
+    return entry != null;
+  }
+
+  /**
+  * Remove all descriptions from the store.
+  */
+  public synchronized void invalidateAll() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  /**
+  * List the stored descriptions one per line, from the least to the most
+  * recently used, as key, number of axioms, estimated memory, age and
+  * pin.
+  *
+  * @return Listed descriptions
+  */
+  public synchronized String list() {
+    StringBuilder string = new StringBuilder();
+    long now = System.currentTimeMillis();
+
+    for(Map.Entry<String, Entry> entry : entries.entrySet()) {
+      Entry value = entry.getValue();
+
+      string.append(String.format("%s %d axioms %.1f MB %.1f s%s\n",
+        entry.getKey(), value.axioms, value.bytes*1e-6,
+        (now-value.created)*1e-3, value.pinned ? " pinned" : ""));
+    }
+
+    return string.toString();
+  }
+
+  /**
+  * Get the store counters as a snapshot of names and values.
+  *
+  * @return
+  */
+  public synchronized LinkedHashMap<String, String> getValues() {
+    LinkedHashMap<String, String> values = new
+      LinkedHashMap<String, String>();
+
+    values.put("session hits", Long.toString(hits));
+    values.put("session misses", Long.toString(misses));
+    values.put("session evictions", Long.toString(evictions));
+    values.put("session maps", Integer.toString(entries.size()));
+    values.put("session memory", String.format("%.1f MB", bytes*1e-6));
+
+    return values;
+  }
+
+  /**
+  * Estimate the memory of the description of a map, including all other
+  * ontologies its manager holds, such as imports which could not be
+  * taken from the import cache. Imports shared from the cache are held
+  * by the cache and not counted.
+  *
+  * @param ontology OWL description of the map
+  * @return Estimated memory in bytes
+  */
+  public static long estimateBytes(OWLOntology ontology) {
+    OWLOntologyManager manager = ontology.getOWLOntologyManager();
+    long axioms = 0;
+
+    for(OWLOntology held : manager.getOntologies()) {
+      if(held.getOWLOntologyManager() == manager) {
+        axioms += held.getAxiomCount();
+      }
+    }
+
+    return axioms*BYTES_PER_AXIOM;
+  }
+
+  /**
+  * Evict the least recently used unpinned entries beyond the limits,
+  * preferring to keep a given entry.
+  *
+  * @param keep Key of the entry evicted last, or null
+  */
+  protected void evict(String keep) {
+    List<String> candidates = new ArrayList<String>();
+    for(Map.Entry<String, Entry> entry : entries.entrySet()) {
+      if(!entry.getValue().pinned && !entry.getKey().equals(keep)) {
+        candidates.add(entry.getKey());
+      }
+    }
+    if((keep != null) && entries.containsKey(keep) &&
+        !entries.get(keep).pinned) {
+      candidates.add(keep);
+    }
+
+    Iterator<String> it = candidates.iterator();
+    while(it.hasNext() && ((entries.size() > maxEntries) ||
+        ((maxBytes > 0) && (bytes > maxBytes)))) {
+      remove(it.next());
+      evictions++;
+    }
+  }
+
+  /**
+  * Stored description with its size and pin
+  */
+  protected static class Entry {
+    protected OWLOntology ontology;
+    protected int axioms;
+    protected long bytes;
+    protected long created;
+    protected String version;
+    protected boolean pinned = false;
+
+    public Entry(OWLOntology ontology, long created) {
+      this.ontology = ontology;
+      this.axioms = ontology.getAxiomCount();
+      this.bytes = estimateBytes(ontology);
+      this.created = created;
+    }
+  }
+}
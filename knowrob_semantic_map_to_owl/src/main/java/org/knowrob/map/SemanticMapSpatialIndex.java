@@ -0,0 +1,326 @@
+package org.knowrob.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+* Uniform grid over the bounding boxes of map objects, computing the
+* spatial relations between them in bulk
+*
+* Each box is registered with the grid cells it overlaps, such that only
+* objects sharing a cell are compared instead of all pairs. Boxes
+* spanning too many cells, e.g., of rooms, are compared with all other
+* objects instead. An object is in another object if its box is contained
+* in the larger box of the other object, and it is on another object if
+* its bottom touches the top of the other object below its center. Only
+* the direct containment is reported, i.e., an object is in the smallest
+* of the objects containing it.
+*
+* All boxes are expected in the same frame.
+*
+*/
+
+public class SemanticMapSpatialIndex {
+  public final static int ON = 0;
+  public final static int IN = 1;
+
+  public final static double CELL_SIZE = 1.0;
+  public final static double TOLERANCE = 0.02;
+  public final static int MAX_CELLS = 64;
+
+  /**
+  * Edge length of the grid cells
+  */
+  protected double cellSize;
+
+  /**
+  * Tolerance of the comparisons of the box coordinates
+  */
+  protected double tolerance;
+
+  /**
+  * Minimum and maximum corners as x, y, z per box
+  */
+  protected double[] min = new double[3*64];
+  protected double[] max = new double[3*64];
+
+  protected int size = 0;
+
+  /**
+  * Boxes by grid cell
+  */
+  protected HashMap<Long, Cell> cells = new HashMap<Long, Cell>();
+
+  /**
+  * Boxes spanning more than MAX_CELLS grid cells
+  */
+  protected Cell large = new Cell();
+
+  public SemanticMapSpatialIndex() {
+    this(CELL_SIZE, TOLERANCE);
+  }
+
+  public SemanticMapSpatialIndex(double cellSize, double tolerance) {
+    this.cellSize = (cellSize > 0.0) ? cellSize : CELL_SIZE;
+    this.tolerance = Math.max(0.0, tolerance);
+  }
+
+  /**
+  * Get the number of boxes.
+  *
+  * @return
+  */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+  * Add the bounding box of an object.
+  *
+  * @param poses Pose columns of the object
+  * @param index Index of the object in the pose columns
+  * @return Index of the box
+  */
+  public int add(SemanticMapPoses poses, int index) {
+    if(3*size == min.length) {
+      min = Arrays.copyOf(min, 2*min.length);
+      max = Arrays.copyOf(max, 2*max.length);
+    }
+
+    poses.getBounds(index, min, max, 3*size);
+
+    long[] range = getCellRange(size);
+
+    if(getCellCount(range) > MAX_CELLS) {
+      large.add(size);
+    }
+    else {
+      for(long i = range[0]; i <= range[3]; i++) {
+        for(long j = range[1]; j <= range[4]; j++) {
+          for(long k = range[2]; k <= range[5]; k++) {
+            Long key = getCellKey(i, j, k);
+            Cell cell = cells.get(key);
+
+            if(cell == null) {
+              cell = new Cell();
+              cells.put(key, cell);
+            }
+            cell.add(size);
+          }
+        }
+      }
+    }
+
+    return size++;
+  }
+
+  /**
+  * Compute the spatial relations between all boxes.
+  *
+  * @return Spatial relations
+  */
+  public List<Relation> getRelations() {
+    ArrayList<Relation> relations = new ArrayList<Relation>();
+
+    // marks the boxes already compared with the current box
+    int[] visited = new int[size];
+    Arrays.fill(visited, -1);
+
+    for(int a = 0; a < size; a++) {
+      long[] range = getCellRange(a);
+      int container = -1;
+
+      if(getCellCount(range) > MAX_CELLS) {
+        // large boxes are compared with all boxes
+        for(int b = 0; b < size; b++) {
+          container = relate(a, b, container, relations);
+        }
+      }
+      else {
+        for(long i = range[0]; i <= range[3]; i++) {
+          for(long j = range[1]; j <= range[4]; j++) {
+            for(long k = range[2]; k <= range[5]; k++) {
+              Cell cell = cells.get(getCellKey(i, j, k));
+
+              if(cell != null) {
+                for(int n = 0; n < cell.size; n++) {
+                  int b = cell.boxes[n];
+
+                  if(visited[b] != a) {
+                    visited[b] = a;
+                    container = relate(a, b, container, relations);
+                  }
+                }
+              }
+            }
+          }
+        }
+
+        for(int n = 0; n < large.size; n++) {
+          int b = large.boxes[n];
+
+          if(visited[b] != a) {
+            visited[b] = a;
+            container = relate(a, b, container, relations);
+          }
+        }
+      }
+
+      if(container >= 0) {
+        relations.add(new Relation(IN, a, container));
+      }
+    }
+
+    return relations;
+  }
+
+  /**
+  * Add the support relation of one box to another box, if any, and get
+  * the smaller of the other box and the current container of the box if
+  * the other box contains it.
+  *
+  * @param a Index of the box
+  * @param b Index of the other box
+  * @param container Index of the smallest container so far, or -1
+  * @param relations Spatial relations
+  * @return Index of the smallest container, or -1
+  */
+  protected int relate(int a, int b, int container, List<Relation>
+      relations) {
+    if(a == b) {
+      return container;
+    }
+
+    int p = 3*a;
+    int q = 3*b;
+
+    double volume = getVolume(b);
+    if(volume <= 0.0) {
+      return container;
+    }
+
+    boolean contained = getVolume(a) < volume;
+    for(int i = 0; contained && (i < 3); i++) {
+      contained = (min[p+i] >= min[q+i]-tolerance) &&
+        (max[p+i] <= max[q+i]+tolerance);
+    }
+
+    if(contained) {
+      // ties are broken by index, independent of the order of the cells
+      if((container < 0) || (volume < getVolume(container)) ||
+          ((volume == getVolume(container)) && (b < container))) {
+        return b;
+      }
+      return container;
+    }
+
+    double x = 0.5*(min[p]+max[p]);
+    double y = 0.5*(min[p+1]+max[p+1]);
+
+    if((Math.abs(min[p+2]-max[q+2]) <= tolerance) &&
+        (x >= min[q]) && (x <= max[q]) &&
+        (y >= min[q+1]) && (y <= max[q+1])) {
+      relations.add(new Relation(ON, a, b));
+    }
+
+    return container;
+  }
+
+  protected double getVolume(int box) {
+    int p = 3*box;
+
+    return (max[p]-min[p])*(max[p+1]-min[p+1])*(max[p+2]-min[p+2]);
+  }
+
+  /**
+  * Get the range of grid cells overlapped by a box grown by the
+  * tolerance, as minimum and maximum cell coordinates.
+  */
+  protected long[] getCellRange(int box) {
+    int p = 3*box;
+    long[] range = new long[6];
+
+    for(int i = 0; i < 3; i++) {
+      range[i] = (long) Math.floor((min[p+i]-tolerance)/cellSize);
+      range[i+3] = (long) Math.floor((max[p+i]+tolerance)/cellSize);
+    }
+
+    return range;
+  }
+
+  /**
+  * Get the number of grid cells in a range, which may exceed the range
+  * of long for huge boxes.
+  */
+  protected static double getCellCount(long[] range) {
+    double count = 1.0;
+    for(int i = 0; i < 3; i++) {
+      count *= (double) range[i+3]-(double) range[i]+1.0;
+    }
+
+    return count;
+  }
+
+  protected static Long getCellKey(long i, long j, long k) {
+    return ((i & 0x1FFFFF) << 42) | ((j & 0x1FFFFF) << 21) | (k & 0x1FFFFF);
+  }
+
+  /**
+  * Spatial relation of an object to a reference object
+  */
+  public static class Relation {
+    protected int relation;
+    protected int object;
+    protected int reference;
+
+    public Relation(int relation, int object, int reference) {
+      this.relation = relation;
+      this.object = object;
+      this.reference = reference;
+    }
+
+    /**
+    * Get relation, i.e., ON or IN.
+    *
+    * @return
+    */
+    public int getRelation() {
+      return relation;
+    }
+
+    /**
+    * Get the box index of the object.
+    *
+    * @return
+    */
+    public int getObject() {
+      return object;
+    }
+
+    /**
+    * Get the box index of the reference object.
+    *
+    * @return
+    */
+    public int getReference() {
+      return reference;
+    }
+  }
+
+  /**
+  * Box indices of a grid cell
+  */
+  protected static class Cell {
+    protected int[] boxes = new int[4];
+    protected int size = 0;
+
+    public void add(int box) {
+      if(size == boxes.length) {
+        boxes = Arrays.copyOf(boxes, 2*size);
+      }
+      boxes[size++] = box;
+    }
+  }
+}
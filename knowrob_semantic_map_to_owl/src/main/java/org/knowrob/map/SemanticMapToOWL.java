@@ -1,32 +1,61 @@
 package org.knowrob.map;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+
 import java.text.SimpleDateFormat;
 
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import javax.vecmath.Quat4d;
-import javax.vecmath.Vector3d;
+import javax.xml.bind.DatatypeConverter;
 
+import org.ros.concurrent.CancellableLoop;
+import org.ros.exception.ServiceException;
+import org.ros.message.MessageFactory;
+import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
 import org.ros.node.AbstractNodeMain;
 import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
 import org.ros.node.parameter.ParameterTree;
 import org.ros.node.service.ServiceResponseBuilder;
+import org.ros.node.topic.Publisher;
+import org.ros.node.topic.Subscriber;
 
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.*;
 import org.semanticweb.owlapi.util.DefaultPrefixManager;
 import org.semanticweb.owlapi.vocab.PrefixOWLOntologyFormat;
 
-import org.knowrob.owl.OWLClass;
 import org.knowrob.owl.OWLThing;
 import org.knowrob.owl.ObjectInstance;
 import org.knowrob.owl.utils.OWLFileUtils;
-import org.knowrob.owl.utils.PackageIRIMapper;
 
 import knowrob_semantic_map_msgs.*;
 
@@ -42,6 +71,165 @@ import knowrob_semantic_map_msgs.*;
 
 public class SemanticMapToOWL extends AbstractNodeMain {
   ConnectedNode node;
+  
+  /**
+  * Cache of the ontologies imported by the generated maps
+  */
+  SemanticMapImportCache importCache = new SemanticMapImportCache();
+  
+  /**
+  * Worker pool converting the requested maps
+  */
+  ExecutorService workers;
+  
+  /**
+  * Pool running the conversions shared by the requests waiting in the
+  * result cache
+  */
+  ExecutorService sharedConversions;
+  
+  /**
+  * Pool describing the partitions of large maps in parallel, or null if
+  * maps are described sequentially
+  */
+  ForkJoinPool forkJoinPool;
+  
+  /**
+  * Maximum number of requests waiting for a worker, or 0 if the number
+  * of waiting requests is not limited
+  */
+  int maxQueuedRequests = 32;
+  
+  /**
+  * Deadline of each request in nanoseconds from its submission, or 0 if
+  * requests have no deadline
+  */
+  long requestTimeout = 0;
+  
+  /**
+  * Maximum number of objects of a converted map, or 0 if the number of
+  * objects is not limited
+  */
+  int maxObjects = 0;
+  
+  /**
+  * Maximum number of objects or actions per partition
+  */
+  int partitionSize = SemanticMapToOWLExport.PARTITION_SIZE;
+  
+  /**
+  * Writer streaming maps to files
+  */
+  SemanticMapOWLWriter writer = new SemanticMapOWLWriter();
+  
+  /**
+  * Directory maps are written to, if not empty
+  */
+  String outputDirectory = "";
+  
+  /**
+  * Format maps are serialized in, or empty for the default format
+  */
+  String outputFormat = "";
+  
+  /**
+  * Compress serialized maps with gzip
+  */
+  boolean compressOutput = false;
+  
+  /**
+  * Stream N-Triples serializations while the descriptions are created,
+  * instead of creating the descriptions as a whole first
+  */
+  boolean streamingExport = false;
+  
+  /**
+  * Retained OWL descriptions by map namespace and name, in access order
+  */
+  LinkedHashMap<String, SemanticMapUpdater> updaters = new
+    LinkedHashMap<String, SemanticMapUpdater>(16, 0.75f, true);
+  
+  /**
+  * Maximum number and estimated memory in bytes of the retained
+  * descriptions, where a memory of 0 is not limited
+  */
+  int updateMaps = SemanticMapSessionStore.MAX_ENTRIES;
+  long updateMemory = SemanticMapSessionStore.MAX_BYTES;
+  
+  /**
+  * Respond to map updates with the applied changes
+  */
+  boolean updateChanges = false;
+  
+  /**
+  * Add the axioms of each conversion stage in batches
+  */
+  boolean batchAxioms = true;
+  
+  /**
+  * Ordering constraints of ordered subactions
+  */
+  SemanticMapAction.Ordering subactionOrdering =
+    SemanticMapAction.Ordering.PAIRWISE;
+  
+  /**
+  * Generate the spatial relations between the map objects
+  */
+  boolean spatialRelations = false;
+  
+  /**
+  * Cell size and tolerance of the spatial index
+  */
+  double spatialCellSize = SemanticMapSpatialIndex.CELL_SIZE;
+  double spatialTolerance = SemanticMapSpatialIndex.TOLERANCE;
+  
+  /**
+  * Latency and size metrics of the conversions
+  */
+  SemanticMapMetrics metrics = new SemanticMapMetrics();
+  
+  /**
+  * Cache of the conversion results by map content, or null if results
+  * are not cached
+  */
+  SemanticMapResultCache resultCache;
+  
+  /**
+  * Converter of the maps received on the input topic, or null if maps
+  * are only converted on request
+  */
+  StreamConverter streamConverter;
+  
+  /**
+  * Query views of the most recently converted maps by map name, in
+  * access order
+  */
+  LinkedHashMap<String, SemanticMapQueryIndex> queryIndices = new
+    LinkedHashMap<String, SemanticMapQueryIndex>(16, 0.75f, true);
+  
+  /**
+  * Query view of the most recently converted map, or null if no map
+  * was converted yet
+  */
+  SemanticMapQueryIndex latestQueryIndex;
+  
+  /**
+  * Maximum number of maps retained for queries, or 0 if maps are not
+  * retained
+  */
+  int queryMaps = 1;
+  
+  /**
+  * Store of the OWL descriptions of converted maps by map namespace and
+  * name, or null if descriptions are not retained
+  */
+  SemanticMapSessionStore sessionStore;
+  
+  /**
+  * Duration of the warm-up in nanoseconds, or -1 if the converter was
+  * not warmed up
+  */
+  long warmUpTime = -1;
 
   @Override
   public GraphName getDefaultNodeName() {
@@ -51,350 +239,1993 @@ public class SemanticMapToOWL extends AbstractNodeMain {
   @Override
   public void onStart(ConnectedNode connectedNode) {
     this.node = connectedNode;
+    ParameterTree params = connectedNode.getParameterTree();
+    
+    boolean warmUp = params.getBoolean("~warm_up", false);
+    long warmUpStart = System.nanoTime();
+    
+    importCache.setCheckModified(params.getBoolean(
+      "~check_imports_modified", true));
+    ArrayList<String> preloadImports = new ArrayList<String>();
+    for(Object iri : params.getList("~preload_imports",
+        new ArrayList<String>())) {
+      preloadImports.add(iri.toString());
+    }
+    importCache.preload(preloadImports);
+    
+    outputDirectory = params.getString("~output_directory", "");
+    outputFormat = params.getString("~output_format", "");
+    compressOutput = params.getBoolean("~compress_output", false);
+    streamingExport = params.getBoolean("~streaming_export", false);
+    batchAxioms = params.getBoolean("~batch_axioms", true);
+    if(params.getString("~subaction_ordering", "pairwise").equals(
+        "sequential")) {
+      subactionOrdering = SemanticMapAction.Ordering.SEQUENTIAL;
+    }
+    updateChanges = params.getString("~update_output", "owl").equals(
+      "changes");
+    updateMaps = Math.max(1, params.getInteger("~update_maps",
+      SemanticMapSessionStore.MAX_ENTRIES));
+    updateMemory = Math.max(0, Math.round(params.getDouble(
+      "~update_memory", SemanticMapSessionStore.MAX_BYTES*1e-6)*1e6));
+    spatialRelations = params.getBoolean("~spatial_relations", false);
+    spatialCellSize = params.getDouble("~spatial_cell_size",
+      SemanticMapSpatialIndex.CELL_SIZE);
+    spatialTolerance = params.getDouble("~spatial_tolerance",
+      SemanticMapSpatialIndex.TOLERANCE);
+    queryMaps = Math.max(0, params.getInteger("~query_maps", 1));
+    
+    int sessionMaps = params.getInteger("~session_maps",
+      SemanticMapSessionStore.MAX_ENTRIES);
+    if(sessionMaps > 0) {
+      sessionStore = new SemanticMapSessionStore();
+      sessionStore.setMaxEntries(sessionMaps);
+      sessionStore.setMaxBytes(Math.round(params.getDouble(
+        "~session_memory", SemanticMapSessionStore.MAX_BYTES*1e-6)*1e6));
+    }
+    
+    maxQueuedRequests = Math.max(0, params.getInteger(
+      "~max_queued_requests", 32));
+    requestTimeout = Math.round(params.getDouble("~request_timeout", 0.0)*
+      1e9);
+    maxObjects = Math.max(0, params.getInteger("~max_objects", 0));
+    
+    int numWorkers = Math.max(1, params.getInteger("~workers",
+      Runtime.getRuntime().availableProcessors()));
+    workers = new ThreadPoolExecutor(numWorkers, numWorkers, 0,
+      TimeUnit.MILLISECONDS, (maxQueuedRequests > 0) ?
+      new ArrayBlockingQueue<Runnable>(maxQueuedRequests) :
+      new LinkedBlockingQueue<Runnable>());
+    
+    int parallelism = params.getInteger("~parallelism",
+      Runtime.getRuntime().availableProcessors());
+    if(parallelism > 1) {
+      forkJoinPool = new ForkJoinPool(parallelism);
+    }
+    partitionSize = params.getInteger("~partition_size",
+      SemanticMapToOWLExport.PARTITION_SIZE);
+    
+    int resultCacheSize = params.getInteger("~result_cache_size",
+      SemanticMapResultCache.MAX_ENTRIES);
+    if(resultCacheSize > 0) {
+      // at most one shared conversion runs per waiting worker
+      sharedConversions = Executors.newCachedThreadPool();
+      resultCache = new SemanticMapResultCache(connectedNode.
+        getMessageSerializationFactory().<SemMap>newMessageSerializer(
+        SemMap._TYPE), sharedConversions);
+      resultCache.setMaxEntries(resultCacheSize);
+      resultCache.setTTL(Math.round(params.getDouble("~result_cache_ttl",
+        SemanticMapResultCache.TTL*1e-3)*1e3));
+    }
+    
+    if(warmUp) {
+      // the services are advertised once the converter is warmed up
+      warmUp(preloadImports, params.getInteger("~warm_up_objects", 100),
+        params.getInteger("~warm_up_iterations", 3));
+      warmUpTime = System.nanoTime()-warmUpStart;
+      
+      System.out.println(String.format("Warm-up took %.3f s",
+        warmUpTime*1e-9));
+    }
+    
     connectedNode.newServiceServer("~generate_owl_map", 
       knowrob_semantic_map_msgs.GenerateSemanticMapOWL._TYPE,
-      new ConvertToOwlCallback());
+      new ConvertToOwlCallback(outputFormat, compressOutput));
+    for(String format : SemanticMapOWLWriter.FORMATS) {
+      connectedNode.newServiceServer("~generate_owl_map_" + format,
+        knowrob_semantic_map_msgs.GenerateSemanticMapOWL._TYPE,
+        new ConvertToOwlCallback(format, false));
+      connectedNode.newServiceServer("~generate_owl_map_" + format + "_gz",
+        knowrob_semantic_map_msgs.GenerateSemanticMapOWL._TYPE,
+        new ConvertToOwlCallback(format, true));
+    }
+    connectedNode.newServiceServer("~update_owl_map", 
+      knowrob_semantic_map_msgs.GenerateSemanticMapOWL._TYPE,
+      new UpdateOwlCallback());
+    connectedNode.newServiceServer("~invalidate_import_cache",
+      std_srvs.Empty._TYPE, new InvalidateImportCacheCallback());
+    connectedNode.newServiceServer("~get_statistics",
+      std_srvs.Trigger._TYPE, new GetStatisticsCallback());
+    if(sessionStore != null) {
+      connectedNode.newServiceServer("~list_sessions",
+        std_srvs.Trigger._TYPE, new ListSessionsCallback());
+    }
+    
+    String inputTopic = params.getString("~input_topic", "");
+    if(!inputTopic.isEmpty()) {
+      Publisher<std_msgs.String> publisher = connectedNode.newPublisher(
+        params.getString("~output_topic", "~owl_map"),
+        std_msgs.String._TYPE);
+      publisher.setLatchMode(true);
+      
+      streamConverter = new StreamConverter(new ConvertToOwlCallback(
+        outputFormat, compressOutput), publisher, params.getDouble(
+        "~max_conversion_rate", 1.0));
+      
+      Subscriber<SemMap> subscriber = connectedNode.newSubscriber(
+        inputTopic, SemMap._TYPE);
+      subscriber.addMessageListener(streamConverter, 1);
+      connectedNode.executeCancellableLoop(streamConverter);
+    }
+    
+    if(queryMaps > 0) {
+      final Publisher<std_msgs.String> queryResults = connectedNode.
+        newPublisher("~query_result", std_msgs.String._TYPE);
+      
+      Subscriber<std_msgs.String> queries = connectedNode.newSubscriber(
+        "~query", std_msgs.String._TYPE);
+      queries.addMessageListener(new MessageListener<std_msgs.String>() {
+        @Override
+        public void onNewMessage(std_msgs.String query) {
+          std_msgs.String result = queryResults.newMessage();
+          
+          try {
+            result.setData(query.getData() + "\n" + query(query.getData()));
+          }
+          catch(IllegalArgumentException e) {
+            result.setData(query.getData() + "\nerror: " + e.getMessage());
+          }
+          queryResults.publish(result);
+        }
+      });
+    }
+    
+    if(sessionStore != null) {
+      final Publisher<std_msgs.String> sessionResults = connectedNode.
+        newPublisher("~session_result", std_msgs.String._TYPE);
+      
+      Subscriber<std_msgs.String> commands = connectedNode.newSubscriber(
+        "~session", std_msgs.String._TYPE);
+      commands.addMessageListener(new MessageListener<std_msgs.String>() {
+        @Override
+        public void onNewMessage(std_msgs.String command) {
+          std_msgs.String result = sessionResults.newMessage();
+          
+          try {
+            result.setData(command.getData() + "\n" +
+              session(command.getData()));
+          }
+          catch(IllegalArgumentException e) {
+            result.setData(command.getData() + "\nerror: " +
+              e.getMessage());
+          }
+          catch(OWLOntologyStorageException e) {
+            result.setData(command.getData() + "\nerror: " +
+              e.getMessage());
+          }
+          sessionResults.publish(result);
+        }
+      });
+    }
+    
+    final long diagnosticsPeriod = Math.round(params.getDouble(
+      "~diagnostics_period", 1.0)*1e3);
+    if(diagnosticsPeriod > 0) {
+      final Publisher<diagnostic_msgs.DiagnosticArray> diagnostics =
+        connectedNode.newPublisher("/diagnostics",
+        diagnostic_msgs.DiagnosticArray._TYPE);
+      
+      connectedNode.executeCancellableLoop(new CancellableLoop() {
+        @Override
+        protected void loop() throws InterruptedException {
+          diagnostics.publish(createDiagnostics(diagnostics.newMessage()));
+          Thread.sleep(diagnosticsPeriod);
+        }
+      });
+    }
+  }
+
+  @Override
+  public void onShutdown(Node node) {
+    if(workers != null) {
+      workers.shutdownNow();
+    }
+    if(sharedConversions != null) {
+      sharedConversions.shutdownNow();
+    }
+    if(forkJoinPool != null) {
+      forkJoinPool.shutdownNow();
+    }
+  }
+
+  class InvalidateImportCacheCallback implements ServiceResponseBuilder<
+      std_srvs.EmptyRequest, std_srvs.EmptyResponse> {
+    @Override
+    public void build(std_srvs.EmptyRequest req, std_srvs.EmptyResponse
+        res) {
+      importCache.invalidateAll();
+      if(resultCache != null) {
+        resultCache.invalidateAll();
+      }
+    }
+  }
+
+  class GetStatisticsCallback implements ServiceResponseBuilder<
+      std_srvs.TriggerRequest, std_srvs.TriggerResponse> {
+    @Override
+    public void build(std_srvs.TriggerRequest req, std_srvs.TriggerResponse
+        res) {
+      res.setSuccess(true);
+      res.setMessage(SemanticMapMetrics.toString(getStatistics()));
+    }
+  }
+
+  class ListSessionsCallback implements ServiceResponseBuilder<
+      std_srvs.TriggerRequest, std_srvs.TriggerResponse> {
+    @Override
+    public void build(std_srvs.TriggerRequest req, std_srvs.TriggerResponse
+        res) {
+      res.setSuccess(true);
+      res.setMessage(sessionStore.list());
+    }
   }
 
   class ConvertToOwlCallback implements ServiceResponseBuilder<
       knowrob_semantic_map_msgs.GenerateSemanticMapOWLRequest,
       knowrob_semantic_map_msgs.GenerateSemanticMapOWLResponse> {
+    final String format;
+    final boolean compress;
+    
+    ConvertToOwlCallback(String format, boolean compress) {
+      this.format = format;
+      this.compress = compress;
+    }
+    
     @Override
-    public void build(knowrob_semantic_map_msgs.GenerateSemanticMapOWLRequest
-        req, knowrob_semantic_map_msgs.GenerateSemanticMapOWLResponse res) {
-      res.setOwlmap("");
-
-      if (req.getMap() != null && req.getMap().getObjects().size()>0) {
-        SemanticMapToOWLExport export = new SemanticMapToOWLExport();
-        export.setMapFrame(req.getMap().getHeader().getFrameId());
-
-        // get address from message
-        ArrayList<String[]> address = new ArrayList<String[]>();
-        if(!req.getMap().getAddress().getRoomNr().isEmpty())
-          address.add(new String[]{"knowrob:RoomInAConstruction",
-            "knowrob:roomNumber", req.getMap().getAddress().getRoomNr()});
-        if(!req.getMap().getAddress().getFloorNr().isEmpty())
-          address.add(new String[]{"knowrob:LevelOfAConstruction",
-            "knowrob:floorNumber", req.getMap().getAddress().getFloorNr()});
-        if(!req.getMap().getAddress().getStreetNr().isEmpty())
-          address.add(new String[]{"knowrob:Building",
-            "knowrob:streetNumber", req.getMap().getAddress().getStreetNr()});
-        if(!req.getMap().getAddress().getStreetName().isEmpty())
-          address.add(new String[]{"knowrob:Street", "rdfs:label",
-            req.getMap().getAddress().getStreetName()});
-        if(!req.getMap().getAddress().getCityName().isEmpty())
-          address.add(new String[]{"knowrob:City", "rdfs:label",
-            req.getMap().getAddress().getCityName()});
-            
-        // use IAS_MAP as default, PREFIX_MANAGER is set by default
-        String namespace = SemanticMapToOWLExport.IAS_MAP;
-        if(!req.getMap().getNamespace().isEmpty()) {
-          namespace = req.getMap().getNamespace();
+    public void build(final
+        knowrob_semantic_map_msgs.GenerateSemanticMapOWLRequest req,
+        knowrob_semantic_map_msgs.GenerateSemanticMapOWLResponse res)
+        throws ServiceException {
+      res.setOwlmap(convertOnWorkers(req.getMap()));
+    }
+    
+    String convertOnWorkers(final SemMap map) throws ServiceException {
+      checkObjects(map);
+      
+      return runOnWorkers(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          final boolean[] converted = {false};
+          Callable<String> conversion = new Callable<String>() {
+            @Override
+            public String call() throws IOException,
+                OWLOntologyStorageException {
+              converted[0] = true;
+              return convert(map);
+            }
+          };
+          
+          // maps written to the output directory are always converted,
+          // such that their files are written
+          if((resultCache == null) || !outputDirectory.isEmpty()) {
+            return conversion.call();
+          }
+          
+          // identical maps yield identical results in the same format
+          String version = resultCache.getKey(map);
+          String key = version + " " + format + (compress ? "+gzip" : "");
+          
+          if(isStoring(format) && !map.getObjects().isEmpty() &&
+              !sessionStore.isCurrent(getMapNamespace(map) +
+              getMapName(map), version)) {
+            // the stored description is of another version of the map
+            // or was evicted, so the map is converted to store it again
+            resultCache.invalidate(key);
+          }
+          
+          String owlmap = resultCache.get(key, conversion);
+          if(!converted[0] && (queryMaps > 0) && !map.getObjects().
+              isEmpty()) {
+            updateQueryIndex(new SemanticMapQueryIndex(getMapName(map),
+              getMapNamespace(map), map, spatialCellSize));
+          }
+          
+          return owlmap;
+        }
+      });
+    }
+    
+    String convert(SemMap map) throws IOException,
+        OWLOntologyStorageException {
+      if(outputDirectory.isEmpty()) {
+        if(format.isEmpty() && !compress) {
+          return convertToOWL(map);
+        }
+        else {
+          return convertToOWL(map, format, compress);
+        }
+      }
+      
+      // stream the map into the output directory and respond with the
+      // path, sizes and checksum of the file only
+      SemanticMapOWLWriter.Output output = writeOWL(map, getOutputFile(
+        new File(outputDirectory), map, format, compress), format,
+        compress);
+      
+      return (output != null) ? output.toString() : "";
+    }
+  }
 
-          if(!namespace.endsWith("#"))
-            namespace += "#";
+  /**
+  * Converter of the maps received on the input topic. Only the latest
+  * received map is kept, maps received while a conversion is running
+  * replace each other, and conversions are started at a limited rate.
+  */
+  class StreamConverter extends CancellableLoop implements
+      MessageListener<SemMap> {
+    final ConvertToOwlCallback conversion;
+    final Publisher<std_msgs.String> publisher;
+    
+    /**
+    * Minimum time between the starts of two conversions in milliseconds
+    */
+    final long period;
+    
+    /**
+    * Latest map not converted yet, or null
+    */
+    SemMap latestMap;
+    
+    long lastStart = 0;
+    long received = 0;
+    long dropped = 0;
+    long published = 0;
+    
+    StreamConverter(ConvertToOwlCallback conversion, Publisher<
+        std_msgs.String> publisher, double maxRate) {
+      this.conversion = conversion;
+      this.publisher = publisher;
+      this.period = (maxRate > 0.0) ? Math.round(1e3/maxRate) : 0;
+    }
+    
+    @Override
+    public synchronized void onNewMessage(SemMap map) {
+      if(latestMap != null) {
+        dropped++;
+      }
+      latestMap = map;
+      received++;
+      
+      notifyAll();
+    }
+    
+    @Override
+    protected void loop() throws InterruptedException {
+      long delay = lastStart+period-System.currentTimeMillis();
+      if(delay > 0) {
+        Thread.sleep(delay);
+      }
+      
+      SemMap map = null;
+      synchronized(this) {
+        while(latestMap == null) {
+          wait();
         }
-        System.err.println("Using map namespace: " + namespace);
+        map = latestMap;
+        latestMap = null;
+      }
+      lastStart = System.currentTimeMillis();
+      
+      try {
+        std_msgs.String owlmap = publisher.newMessage();
+        owlmap.setData(conversion.convertOnWorkers(map));
+        publisher.publish(owlmap);
         
-        String id = req.getMap().getId();        
-        if(id.isEmpty()) {
-          id = "SemanticEnvironmentMap";
+        synchronized(this) {
+          published++;
         }
+      }
+      catch(ServiceException e) {
+        System.out.println(e.getMessage());
+      }
+    }
+    
+    /**
+    * Get the counters of the received, dropped and published maps.
+    *
+    * @return Snapshot of names and values
+    */
+    synchronized LinkedHashMap<String, String> getValues() {
+      LinkedHashMap<String, String> values = new
+        LinkedHashMap<String, String>();
+      
+      values.put("stream received", Long.toString(received));
+      values.put("stream dropped", Long.toString(dropped));
+      values.put("stream published", Long.toString(published));
+      
+      return values;
+    }
+  }
+
+  class UpdateOwlCallback implements ServiceResponseBuilder<
+      knowrob_semantic_map_msgs.GenerateSemanticMapOWLRequest,
+      knowrob_semantic_map_msgs.GenerateSemanticMapOWLResponse> {
+    @Override
+    public void build(final
+        knowrob_semantic_map_msgs.GenerateSemanticMapOWLRequest req,
+        knowrob_semantic_map_msgs.GenerateSemanticMapOWLResponse res)
+        throws ServiceException {
+      checkObjects(req.getMap());
+      
+      res.setOwlmap(runOnWorkers(new Callable<String>() {
+        @Override
+        public String call() {
+          return updateOWL(req.getMap(), updateChanges);
+        }
+      }));
+    }
+  }
+  
+  /**
+  * Reject a map with more objects than a request may convert.
+  *
+  * @param map Semantic map message
+  */
+  void checkObjects(SemMap map) throws ServiceException {
+    if((map != null) && (maxObjects > 0) &&
+        (map.getObjects().size() > maxObjects)) {
+      metrics.recordRejected();
+      throw new ServiceException("Rejected: map has " +
+        map.getObjects().size() + " objects, the limit is " + maxObjects);
+    }
+  }
+  
+  /**
+  * Run a conversion on the worker pool and wait for its result.
+  *
+  * @param conversion Conversion to be run
+  * @return Result of the conversion
+  */
+  String runOnWorkers(final Callable<String> conversion) throws
+      ServiceException {
+    final long submitted = System.nanoTime();
+    Future<String> result = null;
+    
+    try {
+      result = workers.submit(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          metrics.record(SemanticMapMetrics.QUEUE,
+            System.nanoTime()-submitted);
           
-        Date date = new Date();
-        date.setTime(Math.round(
-          req.getMap().getHeader().getStamp().toSeconds()*1e3));
-        id += new SimpleDateFormat("yyyyMMddHHmmss").format(date);
+          return conversion.call();
+        }
+      });
+    }
+    catch(RejectedExecutionException e) {
+      metrics.recordRejected();
+      throw new ServiceException("Rejected: " + maxQueuedRequests +
+        " requests are already waiting for conversion");
+    }
+    metrics.recordAccepted();
+    
+    try {
+      String owlmap = null;
+      if(requestTimeout > 0) {
+        owlmap = result.get(requestTimeout-(System.nanoTime()-submitted),
+          TimeUnit.NANOSECONDS);
+      }
+      else {
+        owlmap = result.get();
+      }
+      metrics.recordRequest(System.nanoTime()-submitted);
+      
+      return owlmap;
+    }
+    catch(TimeoutException e) {
+      // queued conversions are dropped, running conversions stop at the
+      // next stage
+      result.cancel(true);
+      metrics.recordTimeout();
+      throw new ServiceException(String.format("Timed out: conversion " +
+        "exceeded the deadline of %.3f s", requestTimeout*1e-9));
+    }
+    catch(InterruptedException e) {
+      result.cancel(true);
+      metrics.recordFailure();
+      throw new ServiceException(e);
+    }
+    catch(ExecutionException e) {
+      metrics.recordFailure();
+      throw new ServiceException(e.getCause());
+    }
+  }
+  
+  /**
+  * Get the conversion metrics and the counters of the result cache and
+  * the stream converter.
+  *
+  * @return Snapshot of names and values
+  */
+  LinkedHashMap<String, String> getStatistics() {
+    LinkedHashMap<String, String> values = metrics.getValues();
+    
+    if(resultCache != null) {
+      values.putAll(resultCache.getValues());
+    }
+    if(streamConverter != null) {
+      values.putAll(streamConverter.getValues());
+    }
+    synchronized(queryIndices) {
+      values.put("query maps", Integer.toString(queryIndices.size()));
+    }
+    synchronized(updaters) {
+      values.put("update maps", Integer.toString(updaters.size()));
+    }
+    if(sessionStore != null) {
+      values.putAll(sessionStore.getValues());
+    }
+    if(warmUpTime >= 0) {
+      values.put("warm-up time", String.format("%.3f s", warmUpTime*1e-9));
+    }
+    
+    return values;
+  }
+  
+  /**
+  * Fill a diagnostics message with the conversion metrics.
+  *
+  * @param array Diagnostics message
+  * @return Diagnostics message
+  */
+  diagnostic_msgs.DiagnosticArray createDiagnostics(
+      diagnostic_msgs.DiagnosticArray array) {
+    MessageFactory factory = node.getTopicMessageFactory();
+    
+    diagnostic_msgs.DiagnosticStatus status = factory.newFromType(
+      diagnostic_msgs.DiagnosticStatus._TYPE);
+    status.setLevel(diagnostic_msgs.DiagnosticStatus.OK);
+    status.setName(node.getName() + ": conversion");
+    status.setHardwareId("");
+    
+    LinkedHashMap<String, String> values = getStatistics();
+    for(String name : values.keySet()) {
+      diagnostic_msgs.KeyValue value = factory.newFromType(
+        diagnostic_msgs.KeyValue._TYPE);
+      value.setKey(name);
+      value.setValue(values.get(name));
+      status.getValues().add(value);
+    }
+    status.setMessage(values.get("requests") + " requests");
+    
+    array.getHeader().setStamp(node.getCurrentTime());
+    array.getStatus().add(status);
+    
+    return array;
+  }
+  
+  /**
+  * Warm up the converter by converting a synthetic map repeatedly in the
+  * configured output format, such that the first requested conversion
+  * does not pay for class loading, import resolution and compilation.
+  * The metrics, query views and stored descriptions are not affected by
+  * the warm-up.
+  *
+  * @param imports Imports of the synthetic map
+  * @param objects Number of objects of the synthetic map
+  * @param iterations Number of conversions
+  */
+  void warmUp(List<String> imports, int objects, int iterations) {
+    SemanticMapMetrics metrics = this.metrics;
+    this.metrics = new SemanticMapMetrics();
+    
+    try {
+      SemMap map = createWarmUpMap(imports, Math.max(1, objects));
+      
+      for(int i = 0; i < iterations; i++) {
+        convertToOWL(map, outputFormat, compressOutput);
+      }
+    }
+    catch(OWLOntologyStorageException e) {
+      System.out.println(e.getMessage());
+    }
+    finally {
+      this.metrics = metrics;
+      
+      synchronized(queryIndices) {
+        queryIndices.clear();
+        latestQueryIndex = null;
+      }
+      if(sessionStore != null) {
+        sessionStore.invalidateAll();
+      }
+    }
+  }
+  
+  /**
+  * Create a synthetic map for warming up the converter, consisting of
+  * cupboards with a door each, where each door has a handle and a hinge,
+  * and of actions opening the doors.
+  *
+  * @param imports Imports of the map
+  * @param objects Number of objects
+  * @return Semantic map message
+  */
+  SemMap createWarmUpMap(List<String> imports, int objects) {
+    MessageFactory factory = node.getTopicMessageFactory();
+    String[] types = {"Cupboard", "Door", "Handle", "HingedJoint"};
+    
+    SemMap map = factory.newFromType(SemMap._TYPE);
+    map.setId("WarmUpMap");
+    map.getHeader().setFrameId(SemanticMapToOWLExport.MAP_FRAME);
+    map.getHeader().setStamp(node.getCurrentTime());
+    map.getImports().addAll(imports);
+    
+    for(int i = 0; i < objects; i++) {
+      int part = i % types.length;
+      
+      SemMapObject smo = factory.newFromType(SemMapObject._TYPE);
+      smo.setId(types[part] + i);
+      smo.setType(types[part]);
+      if(part == 1) {
+        smo.setPartOf(types[0] + (i-1));
+      }
+      else if(part > 1) {
+        smo.setPartOf(types[1] + (i-part+1));
+      }
+      
+      smo.getSize().setX(0.5);
+      smo.getSize().setY(0.5);
+      smo.getSize().setZ(0.5);
+      smo.getPose().getPosition().setX(i/types.length % 16);
+      smo.getPose().getPosition().setY(i/types.length/16);
+      smo.getPose().getPosition().setZ(0.1*part);
+      smo.getPose().getOrientation().setW(1.0);
+      
+      map.getObjects().add(smo);
+    }
+    
+    for(String id : new String[] {"GraspingSomething", "PullingADoor"}) {
+      SemMapAction sma = factory.newFromType(SemMapAction._TYPE);
+      sma.setId(id);
+      sma.setType(id);
+      map.getActions().add(sma);
+    }
+    for(int i = 1; i < objects; i += types.length) {
+      SemMapAction sma = factory.newFromType(SemMapAction._TYPE);
+      sma.setId("OpeningADoor" + i);
+      sma.setType("OpeningADoor");
+      sma.setAsserted(true);
+      sma.setObjectActedOn(types[1] + i);
+      sma.getSubactions().add("GraspingSomething");
+      sma.getSubactions().add("PullingADoor");
+      map.getActions().add(sma);
+    }
+    
+    return map;
+  }
+  
+  /**
+  * Apply a semantic map message to the OWL description retained for its
+  * map namespace and name, creating the description if necessary. The
+  * least recently updated descriptions are dropped beyond the maximum
+  * number and memory of retained descriptions.
+  *
+  * @param map Semantic map message
+  * @param changes Return the applied changes instead of the description
+  * @return String serialization of the updated OWL description, or the
+  *   rendered changes
+  */
+  public String updateOWL(SemMap map, boolean changes) {
+    if(map == null) {
+      return "";
+    }
+    
+    String key = getMapNamespace(map) + getMapName(map);
+    SemanticMapUpdater updater = null;
+    List<OWLOntologyChange> applied = null;
+    
+    synchronized(updaters) {
+      updater = updaters.get(key);
+    }
+    
+    boolean compatible = false;
+    if(updater != null) {
+      synchronized(updater) {
+        compatible = updater.isCompatible(map);
+      }
+    }
+    
+    if(!compatible) {
+      // the description is created without holding the lock of the
+      // retained descriptions, such that updates of other maps proceed
+      updater = new SemanticMapUpdater(this, map);
+      
+      applied = new ArrayList<OWLOntologyChange>();
+      for(OWLAxiom axiom : updater.getOntology().getAxioms()) {
+        applied.add(new AddAxiom(updater.getOntology(), axiom));
+      }
+    }
+    
+    synchronized(updater) {
+      if(applied == null) {
+        applied = updater.update(map);
         
-        DefaultPrefixManager pm = SemanticMapToOWLExport.PREFIX_MANAGER;
-        for(SemMapPrefix pref : req.getMap().getPrefixes()) {
-          if(pref.getName().endsWith(":")) {
-            pm.setPrefix(pref.getName(), pref.getPrefix());
-          }
-          else {
-            pm.setPrefix(pref.getName()+":", pref.getPrefix());
+        // the estimated memory of the description changes with updates
+        synchronized(updaters) {
+          if(updaters.get(key) == updater) {
+            retainUpdater(key, updater);
           }
         }
+      }
+      else {
+        retainUpdater(key, updater);
+      }
+      
+      if(changes) {
+        return SemanticMapUpdater.renderChanges(applied);
+      }
+      else {
+        OWLOntology owlmap = updater.getOntology();
         
-        HashMap<String, ObjectInstance> mos = semMapObj2MapObj(namespace,
-          req.getMap().getObjects());
-        HashMap<String, SemanticMapAction> mas = semMapAct2MapAct(namespace,
-          req.getMap().getActions());
-          
-        OWLOntology owlmap = export.createOWLMapWithActionDescription(
-          namespace, id,  new ArrayList<ObjectInstance>(mos.values()),
-          new ArrayList<SemanticMapAction>(mas.values()), address);
-        
-        OWLOntologyManager manager = owlmap.getOWLOntologyManager();
-        PackageIRIMapper im = new PackageIRIMapper();
-        manager.addIRIMapper(im);
-        OWLDataFactory factory = manager.getOWLDataFactory();
-        PrefixOWLOntologyFormat pf = (PrefixOWLOntologyFormat)
-          manager.getOntologyFormat(owlmap);
+        return OWLFileUtils.saveOntologytoString(owlmap,
+          owlmap.getOWLOntologyManager().getOntologyFormat(owlmap));
+      }
+    }
+  }
 
-        for(SemMapPrefix pref : req.getMap().getPrefixes()) {
-          if(pref.getName().endsWith(":")) {
-            pf.setPrefix(pref.getName(), pref.getPrefix());
-          }
-          else {
-            pf.setPrefix(pref.getName()+":", pref.getPrefix());
-          }
-        }
-          
-        for(String imp : req.getMap().getImports()) {
-          OWLImportsDeclaration oid = factory.getOWLImportsDeclaration(
-            IRI.create(imp));
-          AddImport addImp = new AddImport(owlmap,oid);
-          manager.applyChange(addImp);
+  /**
+  * Retain the OWL description of a map for its updates, dropping the
+  * least recently updated descriptions beyond the limits.
+  *
+  * @param key Map namespace and name
+  * @param updater Updater of the description
+  */
+  void retainUpdater(String key, SemanticMapUpdater updater) {
+    synchronized(updaters) {
+      updaters.put(key, updater);
+      
+      long bytes = 0;
+      for(SemanticMapUpdater retained : updaters.values()) {
+        bytes += retained.getBytes();
+      }
+      
+      Iterator<SemanticMapUpdater> it = updaters.values().iterator();
+      while(it.hasNext() && (updaters.size() > 1) &&
+          ((updaters.size() > updateMaps) ||
+          ((updateMemory > 0) && (bytes > updateMemory)))) {
+        bytes -= it.next().getBytes();
+        it.remove();
+      }
+    }
+  }
+  
+  /**
+  * Convert a semantic map message into the string serialization of its
+  * OWL description.
+  *
+  * @param map Semantic map message
+  * @return OWL description, or an empty string if the map has no objects
+  */
+  public String convertToOWL(SemMap map) {
+    OWLOntology owlmap = createOWLMap(map);
+    
+    if(owlmap != null) {
+      long start = System.nanoTime();
+      String owl = OWLFileUtils.saveOntologytoString(owlmap,
+        owlmap.getOWLOntologyManager().getOntologyFormat(owlmap));
+      metrics.record(SemanticMapMetrics.SERIALIZATION,
+        System.nanoTime()-start);
+      metrics.recordBytes(SemanticMapMetrics.getUTF8Length(owl));
+      storeOWLMap(map, owlmap);
+      
+      return owl;
+    }
+    else {
+      return "";
+    }
+  }
+  
+  /**
+  * Convert a semantic map message into the serialization of its OWL
+  * description in a given format.
+  *
+  * @param map Semantic map message
+  * @param format Format name, or empty for the default format
+  * @param compress Compress the serialization with gzip
+  * @return Description of the output as written by the OWL writer on
+  *   the first line, followed by the serialization, which is base64
+  *   encoded if compressed, or an empty string if the map has no objects
+  */
+  public String convertToOWL(SemMap map, String format, boolean compress)
+      throws OWLOntologyStorageException {
+    SemanticMapOWLWriter.Content content = createOWLContent(map, format);
+    
+    return (content != null) ? serializeOWL(content, compress) : "";
+  }
+  
+  /**
+  * Serialize the content written for a map into a string.
+  *
+  * @param content Content of the map
+  * @param compress Compress the serialization with gzip
+  * @return Description of the output as written by the OWL writer on
+  *   the first line, followed by the serialization, which is base64
+  *   encoded if compressed
+  */
+  String serializeOWL(SemanticMapOWLWriter.Content content, boolean
+      compress) throws OWLOntologyStorageException {
+    long start = System.nanoTime();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SemanticMapOWLWriter.Output output = writer.write(content, out,
+      compress);
+    
+    String owl = null;
+    if(compress) {
+      owl = DatatypeConverter.printBase64Binary(out.toByteArray());
+    }
+    else {
+      try {
+        owl = out.toString("UTF-8");
+      }
+      catch(UnsupportedEncodingException e) {
+        throw new OWLOntologyStorageException(e);
+      }
+    }
+    metrics.record(SemanticMapMetrics.SERIALIZATION,
+      System.nanoTime()-start);
+    metrics.recordBytes(output.getSize());
+    
+    return output.toString() + "\n" + owl;
+  }
+  
+  /**
+  * Convert a semantic map message into its OWL description and stream
+  * the serialization to a file.
+  *
+  * @param map Semantic map message
+  * @param file Output file
+  * @return Path, size and checksum of the file, or null if the map has
+  *   no objects
+  */
+  public SemanticMapOWLWriter.Output writeOWL(SemMap map, File file) throws
+      OWLOntologyStorageException {
+    return writeOWL(map, file, null, false);
+  }
+  
+  /**
+  * Convert a semantic map message into its OWL description and stream
+  * the serialization in a given format to a file.
+  *
+  * @param map Semantic map message
+  * @param file Output file
+  * @param format Format name, or null for the default format
+  * @param compress Compress the serialization with gzip
+  * @return Path, format, sizes and checksum of the file, or null if the
+  *   map has no objects
+  */
+  public SemanticMapOWLWriter.Output writeOWL(SemMap map, File file,
+      String format, boolean compress) throws OWLOntologyStorageException {
+    SemanticMapOWLWriter.Content content = createOWLContent(map, format);
+    
+    if(content != null) {
+      long start = System.nanoTime();
+      SemanticMapOWLWriter.Output output = writer.write(content, file,
+        compress);
+      metrics.record(SemanticMapMetrics.SERIALIZATION,
+        System.nanoTime()-start);
+      metrics.recordBytes(output.getSize());
+      
+      return output;
+    }
+    else {
+      return null;
+    }
+  }
+  
+  /**
+  * Create the content written for a semantic map message in a given
+  * format. If the export is streaming and the format is N-Triples, the
+  * map is described while its content is written, and the time of the
+  * description is recorded as serialization.
+  *
+  * @param map Semantic map message
+  * @param format Format name, or null for the default format
+  * @return Content of the map, or null if the map has no objects
+  */
+  SemanticMapOWLWriter.Content createOWLContent(final SemMap map,
+      String format) {
+    if(streamingExport && SemanticMapOWLWriter.NTRIPLES.equals(format)) {
+      if((map == null) || map.getObjects().isEmpty()) {
+        return null;
+      }
+      
+      return new SemanticMapOWLWriter.Content() {
+        @Override
+        public String getFormat() {
+          return SemanticMapOWLWriter.NTRIPLES;
         }
         
-        Set<OWLImportsDeclaration> imps = owlmap.getImportsDeclarations();
-        for(OWLImportsDeclaration imp: imps) {
-          try {
-            manager.makeLoadImportRequest(imp);
-          }
-          catch(UnloadableImportException e) {
-            System.out.println(e.getMessage());
-          }
+        @Override
+        public void write(OutputStream out) throws IOException {
+          Writer writer = new BufferedWriter(new OutputStreamWriter(out,
+            "UTF-8"));
+          streamOWLMap(map, writer);
+          writer.flush();
         }
+      };
+    }
+    
+    final OWLOntology owlmap = createOWLMap(map);
+    if(owlmap == null) {
+      return null;
+    }
+    
+    final SemanticMapOWLWriter.Content content =
+      SemanticMapOWLWriter.getContent(owlmap, format);
+    if(sessionStore == null) {
+      return content;
+    }
+    
+    return new SemanticMapOWLWriter.Content() {
+      @Override
+      public String getFormat() {
+        return content.getFormat();
+      }
+      
+      @Override
+      public void write(OutputStream out) throws IOException,
+          OWLOntologyStorageException {
+        content.write(out);
+        storeOWLMap(map, owlmap);
+      }
+    };
+  }
+  
+  /**
+  * Store the OWL description of a converted map once its response is
+  * rendered, such that the description is only serialized by the store
+  * afterwards.
+  *
+  * @param map Semantic map message
+  * @param owlmap OWL description of the map
+  */
+  void storeOWLMap(SemMap map, OWLOntology owlmap) {
+    if(sessionStore != null) {
+      sessionStore.put(getMapNamespace(map) + getMapName(map), owlmap,
+        (resultCache != null) ? resultCache.getKey(map) : null);
+    }
+  }
+  
+  /**
+  * Check if conversions in a format store the descriptions of the maps,
+  * which is not the case for streamed N-Triples.
+  *
+  * @param format Format name, or empty for the default format
+  * @return True if the descriptions are stored
+  */
+  boolean isStoring(String format) {
+    return (sessionStore != null) && !(streamingExport &&
+      SemanticMapOWLWriter.NTRIPLES.equals(format));
+  }
+  
+  /**
+  * Get the file a semantic map message is written to in an output
+  * directory, named after the map instance. Map identifiers must not
+  * contain path separators, and the file must lie inside the directory.
+  *
+  * @param directory Output directory
+  * @param map Semantic map message
+  * @param format Format name, or null for the default format
+  * @param compress Compress the serialization with gzip
+  * @return Output file
+  */
+  public File getOutputFile(File directory, SemMap map, String format,
+      boolean compress) throws IOException {
+    String id = getMapId(map);
+    
+    if((id.indexOf('/') >= 0) || (id.indexOf('\\') >= 0) ||
+        (id.indexOf(File.separatorChar) >= 0) || (id.indexOf('\0') >= 0)) {
+      throw new IllegalArgumentException("Invalid map identifier: " +
+        map.getId());
+    }
+    
+    File file = new File(directory, id + SemanticMapOWLWriter.getExtension(
+      format, compress));
+    if(!directory.getCanonicalFile().equals(file.getCanonicalFile().
+        getParentFile())) {
+      throw new IllegalArgumentException("Invalid map identifier: " +
+        map.getId());
+    }
+    
+    return file;
+  }
+  
+  /**
+  * Get the identifier of the semantic map instance described by a
+  * message.
+  *
+  * @param map Semantic map message
+  * @return Map identifier, including the map timestamp
+  */
+  public String getMapId(SemMap map) {
+    String id = getMapName(map);
+      
+    Date date = new Date();
+    date.setTime(Math.round(
+      map.getHeader().getStamp().toSeconds()*1e3));
+    id += new SimpleDateFormat("yyyyMMddHHmmss").format(date);
+    
+    return id;
+  }
+  
+  /**
+  * Get the name of the map described by a message, i.e., its identifier
+  * without the map timestamp, which is the same for all messages of the
+  * map.
+  *
+  * @param map Semantic map message
+  * @return Map name
+  */
+  public String getMapName(SemMap map) {
+    return map.getId().isEmpty() ? "SemanticEnvironmentMap" : map.getId();
+  }
+  
+  /**
+  * Create the OWL description of a semantic map message.
+  *
+  * @param map Semantic map message
+  * @return OWL description, or null if the map has no objects
+  */
+  public OWLOntology createOWLMap(SemMap map) {
+    if (map != null && map.getObjects().size()>0) {
+      SemanticMapToOWLExport export = createMapExport(map);
+      ArrayList<String[]> address = getMapAddress(map);
+      String namespace = getMapNamespace(map);
+      logDebug("Using map namespace: " + namespace);
+      
+      String id = getMapId(map);
+      
+      // map objects and actions only live as long as this conversion
+      SemanticMapRegistry registry = new SemanticMapRegistry();
+      
+      long start = System.nanoTime();
+      HashMap<String, ObjectInstance> mos = semMapObj2MapObj(registry,
+        namespace, map.getObjects());
+      HashMap<String, SemanticMapAction> mas = semMapAct2MapAct(registry,
+        namespace, map.getActions());
+      start = recordStage(SemanticMapMetrics.MAPPING, start);
         
-        for(SemMapObjectProperty smop : req.getMap().getObjectProperties()) {
-          if(mos.get(smop.getSubject()) != null) {
-            // object properties linked to map object individuals get
-            // instantiated as OWL object properties
-            OWLObjectProperty op = null;
-            OWLNamedIndividual subjInd = null;
-            OWLNamedIndividual objInd = null;
-            
-            IRI opIRI = IRI.create(smop.getId());
-            if(pm.getPrefix(opIRI.getNamespace()) != null) {
-              op = factory.getOWLObjectProperty(smop.getId(), pm);
-            }
-            else {
-              op = factory.getOWLObjectProperty(opIRI);
-            }
-            
-            IRI subjIRI = IRI.create(namespace + smop.getSubject());
-            if(pm.getPrefix(subjIRI.getNamespace()) != null) {
-              subjInd = factory.getOWLNamedIndividual(smop.getSubject(), pm);
-            }
-            else {
-              subjInd = factory.getOWLNamedIndividual(subjIRI);
-            }
-            
-            IRI objIRI = IRI.create(namespace + smop.getObject());
-            if(pm.getPrefix(objIRI.getNamespace()) != null) {
-              objInd = factory.getOWLNamedIndividual(smop.getObject(), pm);
-            }
-            else {
-              objInd = factory.getOWLNamedIndividual(objIRI);
-            }
-            
-            OWLObjectPropertyAssertionAxiom opAxiom =
-              factory.getOWLObjectPropertyAssertionAxiom(op, subjInd, objInd);
-            manager.addAxiom(owlmap, opAxiom);
-          }
-          else if(mas.get(smop.getSubject()) != null) {
-            // object properties linked to map action classes get
-            // instantiated as OWL restrictions on object properties
-            OWLObjectProperty op = null;
-            org.semanticweb.owlapi.model.OWLClass actClass = null;
-            OWLNamedIndividual objInd = null;
-            
-            IRI opIRI = IRI.create(smop.getId());
-            if(pm.getPrefix(opIRI.getNamespace()) != null) {
-              op = factory.getOWLObjectProperty(smop.getId(), pm);
-            }
-            else {
-              op = factory.getOWLObjectProperty(opIRI);
-            }
-            
-            IRI subjIRI = IRI.create(namespace + smop.getSubject());
-            if(pm.getPrefix(subjIRI.getNamespace()) != null) {
-              actClass = factory.getOWLClass(smop.getSubject(), pm);
-            }
-            else {
-              actClass = factory.getOWLClass(subjIRI);
-            }
-            
-            IRI objIRI = IRI.create(smop.getObject());
-            if(pm.getPrefix(objIRI.getNamespace()) != null) {
-              objInd = factory.getOWLNamedIndividual(smop.getObject(), pm);
-            }
-            else if(!objIRI.isAbsolute()) {
-              objInd = factory.getOWLNamedIndividual(
-                "map:"+OWLThing.getShortNameOfIRI(smop.getObject()), pm);
-            }
-            else {
-              objInd = factory.getOWLNamedIndividual(objIRI);
-            }
-            
-            OWLClassExpression opExpr = factory.getOWLObjectHasValue(
-              op, objInd);
-            manager.addAxiom(owlmap, factory.getOWLSubClassOfAxiom(
-              actClass, opExpr));            
-          }
+      OWLOntology owlmap = export.createOWLMapWithActionDescription(
+        namespace, id,  new ArrayList<ObjectInstance>(mos.values()),
+        new ArrayList<SemanticMapAction>(mas.values()), address);
+      start = recordStage(SemanticMapMetrics.ONTOLOGY, start);
+      
+      addMapImports(owlmap, map);
+      start = recordStage(SemanticMapMetrics.IMPORTS, start);
+      
+      addMapProperties(owlmap, map, mos, mas, namespace, export);
+      start = recordStage(SemanticMapMetrics.PROPERTIES, start);
+      
+      if(spatialRelations) {
+        addSpatialRelations(owlmap, registry, mos, export);
+        recordStage(SemanticMapMetrics.SPATIAL, start);
+      }
+      
+      addDanglingReferences(owlmap, registry.getDanglingReferences());
+      addSubactionCycles(owlmap, export.getSubactionCycles());
+      metrics.recordAxioms(owlmap.getAxiomCount());
+      
+      if(queryMaps > 0) {
+        updateQueryIndex(new SemanticMapQueryIndex(getMapName(map),
+          namespace, map, spatialCellSize));
+      }
+       
+      registry.clear();
+      
+      return owlmap;
+    }
+    
+    return null;
+  }
+  
+  /**
+  * Retain the query view of a converted map, dropping the least recently
+  * used views beyond the maximum number of retained maps.
+  *
+  * @param index Query view of the map
+  */
+  void updateQueryIndex(SemanticMapQueryIndex index) {
+    synchronized(queryIndices) {
+      queryIndices.put(index.getMapId(), index);
+      latestQueryIndex = index;
+      
+      Iterator<String> it = queryIndices.keySet().iterator();
+      for(int n = queryIndices.size(); n > queryMaps; n--) {
+        it.next();
+        it.remove();
+      }
+    }
+  }
+  
+  /**
+  * Query the objects of a recently converted map, without serializing
+  * its OWL description. A leading term "map ID" selects the map by its
+  * identifier without timestamp, see getMapName(), otherwise the most
+  * recently converted map is queried.
+  *
+  * @param query Conjunction of query terms as in SemanticMapQueryIndex
+  * @return Matching objects one per line, as identifier, type, position
+  *   and orientation
+  */
+  public String query(String query) {
+    SemanticMapQueryIndex index = null;
+    String[] terms = query.trim().split("\\s+and\\s+", 2);
+    
+    synchronized(queryIndices) {
+      if(terms[0].startsWith("map ")) {
+        String id = terms[0].substring(4).trim();
+        
+        index = queryIndices.get(id);
+        if(index == null) {
+          throw new IllegalArgumentException("Unknown map: " + id);
         }
-                    
-        for(SemMapDataProperty smdp : req.getMap().getDataProperties()) {
-          if(mos.get(smdp.getSubject()) != null) {
-            // data properties linked to map object individuals get
-            // instantiated as OWL data properties
-            OWLDataProperty dp = null;
-            OWLNamedIndividual subjInd = null;
-            
-            IRI dpIRI = IRI.create(smdp.getId());
-            if(pm.getPrefix(dpIRI.getNamespace()) != null) {
-              dp = factory.getOWLDataProperty(smdp.getId(), pm);
-            }
-            else {
-              dp = factory.getOWLDataProperty(dpIRI);
-            }
-            
-            IRI subjIRI = IRI.create(namespace + smdp.getSubject());
-            if(pm.getPrefix(subjIRI.getNamespace()) != null) {
-              subjInd = factory.getOWLNamedIndividual(smdp.getSubject(), pm);
-            }
-            else {
-              subjInd = factory.getOWLNamedIndividual(subjIRI);
-            }
-            
-            OWLDataPropertyAssertionAxiom dpAxiom = null;
-            if(smdp.getValueType() == smdp.VALUE_TYPE_BOOL) {
-              dpAxiom = factory.getOWLDataPropertyAssertionAxiom(dp,
-                subjInd, Boolean.parseBoolean(smdp.getValue()));
-            }
-            else if(smdp.getValueType() == smdp.VALUE_TYPE_FLOAT) {
-              dpAxiom = factory.getOWLDataPropertyAssertionAxiom(dp,
-                subjInd, Double.parseDouble(smdp.getValue()));
-            }
-            else if(smdp.getValueType() == smdp.VALUE_TYPE_INT) {
-              dpAxiom = factory.getOWLDataPropertyAssertionAxiom(dp,
-                subjInd, Integer.parseInt(smdp.getValue()));
-            }
-            else {
-              dpAxiom = factory.getOWLDataPropertyAssertionAxiom(dp,
-                subjInd, smdp.getValue());
-            }
-            
-            manager.addAxiom(owlmap, dpAxiom);
-          }
-          else if(mas.get(smdp.getSubject()) != null) {
-            // data properties linked to map action classes get
-            // instantiated as OWL restrictions on data properties
-            OWLDataProperty dp = null;
-            org.semanticweb.owlapi.model.OWLClass actClass = null;
-            
-            IRI dpIRI = IRI.create(smdp.getId());
-            if(pm.getPrefix(dpIRI.getNamespace()) != null) {
-              dp = factory.getOWLDataProperty(smdp.getId(), pm);
-            }
-            else {
-              dp = factory.getOWLDataProperty(dpIRI);
-            }
-            
-            IRI subjIRI = IRI.create(namespace + smdp.getSubject());
-            if(pm.getPrefix(subjIRI.getNamespace()) != null) {
-              actClass = factory.getOWLClass(smdp.getSubject(), pm);
-            }
-            else {
-              actClass = factory.getOWLClass(subjIRI);
-            }
-            
-            OWLClassExpression dpExpr = null;
-            if(smdp.getValueType() == smdp.VALUE_TYPE_BOOL) {
-              dpExpr = factory.getOWLDataHasValue(dp,
-                factory.getOWLLiteral(Boolean.parseBoolean(smdp.getValue())));
-            }
-            else if(smdp.getValueType() == smdp.VALUE_TYPE_FLOAT) {
-              dpExpr = factory.getOWLDataHasValue(dp,
-                factory.getOWLLiteral(Double.parseDouble(smdp.getValue())));
-            }
-            else if(smdp.getValueType() == smdp.VALUE_TYPE_INT) {
-              dpExpr = factory.getOWLDataHasValue(dp,
-                factory.getOWLLiteral(Integer.parseInt(smdp.getValue())));
-            }
-            else {
-              dpExpr = factory.getOWLDataHasValue(dp,
-                factory.getOWLLiteral(smdp.getValue()));
-            }
-            
-            manager.addAxiom(owlmap, factory.getOWLSubClassOfAxiom(
-              actClass, dpExpr));
-          }
+        if(terms.length < 2) {
+          throw new IllegalArgumentException("Missing query terms");
         }
-         
-        res.setOwlmap(OWLFileUtils.saveOntologytoString(owlmap,
-          owlmap.getOWLOntologyManager().getOntologyFormat(owlmap)));
+        query = terms[1];
       }
+      else {
+        index = latestQueryIndex;
+      }
+    }
+    
+    if(index == null) {
+      throw new IllegalArgumentException("No map converted yet");
     }
+    
+    return index.format(index.query(query));
   }
+  
+  /**
+  * Run a command on the stored descriptions of the converted maps. Maps
+  * are named by their namespace followed by their name, see
+  * getMapName(), or by their name alone if it is unique among the stored
+  * maps. The commands are:
+  *   list            list the stored maps, see SemanticMapSessionStore
+  *   pin MAP         exempt a map from eviction
+  *   unpin MAP       make a map evictable again
+  *   evict MAP       remove a map, whether pinned or not
+  *   get MAP [FMT]   serialize a map in a format without converting it
+  *
+  * @param command Command and its arguments
+  * @return Result of the command
+  */
+  public String session(String command) throws
+      OWLOntologyStorageException {
+    if(sessionStore == null) {
+      throw new IllegalArgumentException("Maps are not stored");
+    }
+    
+    String[] args = command.trim().split("\\s+");
+    
+    if(args[0].equals("list") && (args.length == 1)) {
+      return sessionStore.list();
+    }
+    else if((args[0].equals("pin") || args[0].equals("unpin")) &&
+        (args.length == 2)) {
+      String key = sessionStore.resolve(args[1]);
+      sessionStore.setPinned(key, args[0].equals("pin"));
+      
+      return args[0] + "ned " + key;
+    }
+    else if(args[0].equals("evict") && (args.length == 2)) {
+      String key = sessionStore.resolve(args[1]);
+      sessionStore.remove(key);
+      
+      return "evicted " + key;
+    }
+    else if(args[0].equals("get") && ((args.length == 2) ||
+        (args.length == 3))) {
+      OWLOntology owlmap = sessionStore.get(sessionStore.resolve(args[1]));
+      
+      if(owlmap == null) {
+        // evicted since resolved
+        throw new IllegalArgumentException("Unknown map: " + args[1]);
+      }
+      
+      synchronized(owlmap) {
+        return serializeOWL(SemanticMapOWLWriter.getContent(owlmap,
+          (args.length == 3) ? args[2] : outputFormat), false);
+      }
+    }
+    else {
+      throw new IllegalArgumentException("Invalid command: " + command);
+    }
+  }
+  
+  /**
+  * Stream the OWL description of a semantic map message as N-Triples
+  * while it is created, such that the description is never held in
+  * memory as a whole, see SemanticMapTripleStream.
+  *
+  * Memory is bounded per chunk of partition_size objects, actions or
+  * properties only for the export stage. The message, its map objects
+  * and actions, and the poses of the objects are held for the whole
+  * stream.
+  *
+  * @param map Semantic map message
+  * @param writer Writer the triples are written to
+  * @return True if the map was described, false if it has no objects
+  */
+  public boolean streamOWLMap(final SemMap map, Writer writer) throws
+      IOException {
+    if((map == null) || map.getObjects().isEmpty()) {
+      return false;
+    }
+    
+    final SemanticMapToOWLExport export = createMapExport(map);
+    ArrayList<String[]> address = getMapAddress(map);
+    String namespace = getMapNamespace(map);
+    logDebug("Using map namespace: " + namespace);
+    
+    String id = getMapId(map);
+    
+    // map objects and actions only live as long as this conversion
+    final SemanticMapRegistry registry = new SemanticMapRegistry();
+    
+    try {
+      long start = System.nanoTime();
+      HashMap<String, ObjectInstance> mos = semMapObj2MapObj(registry,
+        namespace, map.getObjects());
+      HashMap<String, SemanticMapAction> mas = semMapAct2MapAct(registry,
+        namespace, map.getActions());
+      recordStage(SemanticMapMetrics.MAPPING, start);
+      
+      SemanticMapTripleStream stream = new SemanticMapTripleStream(writer) {
+        @Override
+        public void writeHeader(OWLOntology header) throws IOException {
+          addMapImports(header, map);
+          addDanglingReferences(header, registry.getDanglingReferences());
+          addSubactionCycles(header, export.getSubactionCycles());
+          super.writeHeader(header);
+        }
+        
+        @Override
+        public void write(OWLOntology chunk) throws IOException {
+          checkCancelled();
+          super.write(chunk);
+        }
+      };
+      
+      if(!export.writeOWLMapWithActionDescription(namespace, id,
+          new ArrayList<ObjectInstance>(mos.values()),
+          new ArrayList<SemanticMapAction>(mas.values()), address,
+          stream)) {
+        throw new IOException("Failed to describe map " + id);
+      }
+      
+      streamMapProperties(stream, map, mos, mas, namespace, export);
+      if(spatialRelations) {
+        OWLOntology chunk = stream.createChunk();
+        addSpatialRelations(chunk, registry, mos, export);
+        stream.write(chunk);
+      }
+      writer.flush();
+      
+      metrics.recordAxioms(stream.getAxiomCount());
+      
+      if(queryMaps > 0) {
+        updateQueryIndex(new SemanticMapQueryIndex(getMapName(map),
+          namespace, map, spatialCellSize));
+      }
+    }
+    finally {
+      registry.clear();
+    }
+    
+    return true;
+  }
+  
+  /**
+  * Record the latency of a conversion stage, and stop the conversion if
+  * its request has been cancelled meanwhile.
+  *
+  * @param stage Conversion stage
+  * @param start Start of the stage as returned by System.nanoTime()
+  * @return End of the stage
+  */
+  long recordStage(String stage, long start) {
+    long end = System.nanoTime();
+    metrics.record(stage, end-start);
+    checkCancelled();
+    
+    return end;
+  }
+  
+  /**
+  * Stop a conversion whose request has been cancelled, e.g., because it
+  * exceeded its deadline, by throwing a CancellationException.
+  */
+  void checkCancelled() {
+    if(Thread.currentThread().isInterrupted()) {
+      throw new CancellationException("Conversion cancelled");
+    }
+  }
+  
+  /**
+  * Create the export of a semantic map message, set up with the frame
+  * and prefixes of the map.
+  *
+  * @param map Semantic map message
+  * @return Export
+  */
+  SemanticMapToOWLExport createMapExport(SemMap map) {
+    SemanticMapToOWLExport export = new SemanticMapToOWLExport();
+    export.setMapFrame(map.getHeader().getFrameId());
+    export.setBatchAxioms(batchAxioms);
+    export.setForkJoinPool(forkJoinPool);
+    export.setPartitionSize(partitionSize);
+    
+    DefaultPrefixManager pm = export.getPrefixManager();
+    for(SemMapPrefix pref : map.getPrefixes()) {
+      if(pref.getName().endsWith(":")) {
+        pm.setPrefix(pref.getName(), pref.getPrefix());
+      }
+      else {
+        pm.setPrefix(pref.getName()+":", pref.getPrefix());
+      }
+    }
+    
+    return export;
+  }
+  
+  /**
+  * Get the address of a semantic map message.
+  *
+  * @param map Semantic map message
+  * @return Address as class, property and value triples
+  */
+  ArrayList<String[]> getMapAddress(SemMap map) {
+    ArrayList<String[]> address = new ArrayList<String[]>();
+    if(!map.getAddress().getRoomNr().isEmpty())
+      address.add(new String[]{"knowrob:RoomInAConstruction",
+        "knowrob:roomNumber", map.getAddress().getRoomNr()});
+    if(!map.getAddress().getFloorNr().isEmpty())
+      address.add(new String[]{"knowrob:LevelOfAConstruction",
+        "knowrob:floorNumber", map.getAddress().getFloorNr()});
+    if(!map.getAddress().getStreetNr().isEmpty())
+      address.add(new String[]{"knowrob:Building",
+        "knowrob:streetNumber", map.getAddress().getStreetNr()});
+    if(!map.getAddress().getStreetName().isEmpty())
+      address.add(new String[]{"knowrob:Street", "rdfs:label",
+        map.getAddress().getStreetName()});
+    if(!map.getAddress().getCityName().isEmpty())
+      address.add(new String[]{"knowrob:City", "rdfs:label",
+        map.getAddress().getCityName()});
+    
+    return address;
+  }
+  
+  /**
+  * Get the namespace of a semantic map message.
+  *
+  * @param map Semantic map message
+  * @return Namespace, ending with a hash
+  */
+  String getMapNamespace(SemMap map) {
+    // use IAS_MAP as default, PREFIX_MANAGER is set by default
+    String namespace = SemanticMapToOWLExport.IAS_MAP;
+    if(!map.getNamespace().isEmpty()) {
+      namespace = map.getNamespace();
 
-  private HashMap<String, ObjectInstance> semMapObj2MapObj(String map_id,
-      List<SemMapObject> smos) {
-    HashMap<String, ObjectInstance> mos = new
-      HashMap<String, ObjectInstance>();
-
-    for(SemMapObject smo : smos) {
-      SemanticMapObject mo = SemanticMapObject.getSemanticMapObject(
-        smo.getId());
-      mos.put(smo.getId(), mo);
-
-      mo.addType(OWLClass.getOWLClass(smo.getType()));
+      if(!namespace.endsWith("#"))
+        namespace += "#";
+    }
+    
+    return namespace;
+  }
+  
+  /**
+  * Add the prefixes and imports of a semantic map message to its OWL
+  * description, and attach the imported ontologies.
+  *
+  * @param owlmap OWL description of the map
+  * @param map Semantic map message
+  */
+  void addMapImports(OWLOntology owlmap, SemMap map) {
+    OWLOntologyManager manager = owlmap.getOWLOntologyManager();
+    OWLDataFactory factory = manager.getOWLDataFactory();
+    PrefixOWLOntologyFormat pf = (PrefixOWLOntologyFormat)
+      manager.getOntologyFormat(owlmap);
 
-      mo.setStamp(Math.round(smo.getHeader().getStamp().toSeconds()));
-      mo.setFrame(smo.getHeader().getFrameId());
+    for(SemMapPrefix pref : map.getPrefixes()) {
+      if(pref.getName().endsWith(":")) {
+        pf.setPrefix(pref.getName(), pref.getPrefix());
+      }
+      else {
+        pf.setPrefix(pref.getName()+":", pref.getPrefix());
+      }
+    }
       
-      mo.getDimensions().x=smo.getSize().getX();
-      mo.getDimensions().y=smo.getSize().getY();
-      mo.getDimensions().z=smo.getSize().getZ();
-
-      Vector3d position = new Vector3d();
-      position.x = smo.getPose().getPosition().getX();
-      position.y = smo.getPose().getPosition().getY();
-      position.z = smo.getPose().getPosition().getZ();
+    for(String imp : map.getImports()) {
+      OWLImportsDeclaration oid = factory.getOWLImportsDeclaration(
+        IRI.create(imp));
+      AddImport addImp = new AddImport(owlmap,oid);
+      manager.applyChange(addImp);
+    }
+    
+    importCache.attach(owlmap);
+  }
+  
+  /**
+  * Add the spatial relations between the objects of a semantic map to
+  * its OWL description, computed from the object poses and dimensions.
+  *
+  * @param owlmap OWL description of the map
+  * @param registry Registry holding the poses of the map objects
+  * @param mos Map objects by identifier
+  * @param export Export of the map
+  */
+  void addSpatialRelations(OWLOntology owlmap, SemanticMapRegistry
+      registry, Map<String, ObjectInstance> mos, SemanticMapToOWLExport
+      export) {
+    OWLDataFactory factory = owlmap.getOWLOntologyManager().
+      getOWLDataFactory();
+    SemanticMapIRIResolver resolver = export.getIRIResolver(owlmap);
+    
+    SemanticMapSpatialIndex index = new SemanticMapSpatialIndex(
+      spatialCellSize, spatialTolerance);
+    ArrayList<OWLNamedIndividual> objects = new
+      ArrayList<OWLNamedIndividual>();
+    
+    for(ObjectInstance mo : mos.values()) {
+      // poses in other frames are not comparable to the map frame
+      if((mo instanceof SemanticMapObject) &&
+          (((SemanticMapObject) mo).getPoseIndex() >= 0) &&
+          isMapFrame(((SemanticMapObject) mo).getFrame(),
+          export.getMapFrame())) {
+        index.add(registry.getPoses(),
+          ((SemanticMapObject) mo).getPoseIndex());
+        objects.add(resolver.getOWLNamedIndividual(
+          "map:"+mo.getShortName()));
+      }
+    }
+    
+    OWLObjectProperty on = resolver.getOWLObjectProperty(
+      "knowrob:on-Physical");
+    OWLObjectProperty in = resolver.getOWLObjectProperty(
+      "knowrob:in-ContGeneric");
+    
+    for(SemanticMapSpatialIndex.Relation relation : index.getRelations()) {
+      export.addAxiom(owlmap, factory.getOWLObjectPropertyAssertionAxiom(
+        (relation.getRelation() == SemanticMapSpatialIndex.ON) ? on : in,
+        objects.get(relation.getObject()),
+        objects.get(relation.getReference())));
+    }
+    export.flushAxioms(owlmap);
+  }
+  
+  /**
+  * Report the references to objects or actions missing from a semantic
+  * map message as comments on its OWL description.
+  *
+  * @param owlmap OWL description of the map
+  * @param references Descriptions of the dangling references
+  */
+  void addDanglingReferences(OWLOntology owlmap, List<String> references) {
+    addComments(owlmap, "Dangling reference: ", references);
+    metrics.recordDanglingReferences(references.size());
+  }
+  
+  /**
+  * Report the cycles among the subactions of a semantic map message as
+  * comments on its OWL description.
+  *
+  * @param owlmap OWL description of the map
+  * @param cycles Descriptions of the cycles
+  */
+  void addSubactionCycles(OWLOntology owlmap, List<String> cycles) {
+    addComments(owlmap, "Subaction cycle: ", cycles);
+  }
+  
+  /**
+  * Add comments to an OWL description and print them to the error
+  * stream.
+  *
+  * @param owlmap OWL description of the map
+  * @param prefix Prefix of each comment
+  * @param comments Comments without prefix
+  */
+  void addComments(OWLOntology owlmap, String prefix, List<String>
+      comments) {
+    OWLOntologyManager manager = owlmap.getOWLOntologyManager();
+    OWLDataFactory factory = manager.getOWLDataFactory();
+    
+    for(String comment : comments) {
+      logWarn(prefix + comment);
+      
+      manager.applyChange(new AddOntologyAnnotation(owlmap,
+        factory.getOWLAnnotation(factory.getRDFSComment(),
+        factory.getOWLLiteral(prefix + comment))));
+    }
+  }
+  
+  /**
+  * Log a debug message on the log of the node, if running as a node.
+  *
+  * @param message Message
+  */
+  void logDebug(String message) {
+    if(node != null) {
+      node.getLog().debug(message);
+    }
+  }
+  
+  /**
+  * Log a warning on the log of the node, if running as a node.
+  *
+  * @param message Message
+  */
+  void logWarn(String message) {
+    if(node != null) {
+      node.getLog().warn(message);
+    }
+  }
+  
+  /**
+  * Add the object and data properties of a semantic map message to its
+  * OWL description.
+  *
+  * @param owlmap OWL description of the map
+  * @param map Semantic map message
+  * @param mos Map objects by identifier
+  * @param mas Map actions by identifier
+  * @param namespace Map namespace
+  * @param export Export the map was described by
+  */
+  void addMapProperties(OWLOntology owlmap, SemMap map, Map<String, ?> mos,
+      Map<String, ?> mas, String namespace, SemanticMapToOWLExport export) {
+    SemanticMapIRIResolver resolver = export.getIRIResolver(owlmap);
+    
+    for(SemMapObjectProperty smop : map.getObjectProperties()) {
+      OWLAxiom opAxiom = createObjectPropertyAxiom(smop, mos, mas,
+        namespace, resolver);
+      if(opAxiom != null)
+        export.addAxiom(owlmap, opAxiom);
+    }
+                
+    for(SemMapDataProperty smdp : map.getDataProperties()) {
+      OWLAxiom dpAxiom = createDataPropertyAxiom(smdp, mos, mas,
+        namespace, resolver);
+      if(dpAxiom != null)
+        export.addAxiom(owlmap, dpAxiom);
+    }
+    export.flushAxioms(owlmap);
+  }
+  
+  /**
+  * Stream the object and data properties of a semantic map message in
+  * chunks of at most partition_size properties, see addMapProperties().
+  *
+  * @param stream Stream of the OWL description of the map
+  * @param map Semantic map message
+  * @param mos Map objects by identifier
+  * @param mas Map actions by identifier
+  * @param namespace Map namespace
+  * @param export Export the map was described by
+  */
+  void streamMapProperties(SemanticMapTripleStream stream, SemMap map,
+      Map<String, ?> mos, Map<String, ?> mas, String namespace,
+      SemanticMapToOWLExport export) throws IOException {
+    int size = Math.max(1, partitionSize);
+    OWLOntology chunk = stream.createChunk();
+    SemanticMapIRIResolver resolver = export.getIRIResolver(chunk);
+    int count = 0;
+    
+    for(SemMapObjectProperty smop : map.getObjectProperties()) {
+      OWLAxiom opAxiom = createObjectPropertyAxiom(smop, mos, mas,
+        namespace, resolver);
+      if(opAxiom != null)
+        export.addAxiom(chunk, opAxiom);
+      
+      if(++count % size == 0) {
+        export.flushAxioms(chunk);
+        stream.write(chunk);
+        chunk = stream.createChunk();
+      }
+    }
+    
+    for(SemMapDataProperty smdp : map.getDataProperties()) {
+      OWLAxiom dpAxiom = createDataPropertyAxiom(smdp, mos, mas,
+        namespace, resolver);
+      if(dpAxiom != null)
+        export.addAxiom(chunk, dpAxiom);
+      
+      if(++count % size == 0) {
+        export.flushAxioms(chunk);
+        stream.write(chunk);
+        chunk = stream.createChunk();
+      }
+    }
+    
+    export.flushAxioms(chunk);
+    stream.write(chunk);
+  }
+  
+  /**
+  * Create the axiom asserting a semantic map object property.
+  *
+  * @param smop Object property message
+  * @param mos Map objects by identifier
+  * @param mas Map actions by identifier
+  * @param namespace Map namespace
+  * @param resolver IRI resolver of the map
+  * @return Axiom, or null if the subject is neither a map object nor a map
+  *   action
+  */
+  OWLAxiom createObjectPropertyAxiom(SemMapObjectProperty smop,
+      Map<String, ?> mos, Map<String, ?> mas, String namespace,
+      SemanticMapIRIResolver resolver) {
+    OWLDataFactory factory = resolver.getFactory();
+    
+    if(mos.get(smop.getSubject()) != null) {
+      // object properties linked to map object individuals get
+      // instantiated as OWL object properties
+      OWLObjectProperty op = null;
+      OWLNamedIndividual subjInd = null;
+      OWLNamedIndividual objInd = null;
+      
+      op = resolver.resolveOWLObjectProperty(smop.getId());
+      
+      subjInd = resolver.resolveMapOWLNamedIndividual(namespace,
+        smop.getSubject());
+      
+      objInd = resolver.resolveMapOWLNamedIndividual(namespace,
+        smop.getObject());
+      
+      return factory.getOWLObjectPropertyAssertionAxiom(op, subjInd,
+        objInd);
+    }
+    else if(mas.get(smop.getSubject()) != null) {
+      // object properties linked to map action classes get
+      // instantiated as OWL restrictions on object properties
+      OWLObjectProperty op = null;
+      org.semanticweb.owlapi.model.OWLClass actClass = null;
+      OWLNamedIndividual objInd = null;
+      
+      op = resolver.resolveOWLObjectProperty(smop.getId());
+      
+      actClass = resolver.resolveMapOWLClass(namespace, smop.getSubject());
+      
+      objInd = resolver.resolveOWLNamedIndividual(smop.getObject(), "map:");
+      
+      OWLClassExpression opExpr = factory.getOWLObjectHasValue(
+        op, objInd);
+      return factory.getOWLSubClassOfAxiom(actClass, opExpr);
+    }
+    
+    return null;
+  }
 
-      Quat4d orientation = new Quat4d();
-      orientation.x = smo.getPose().getOrientation().getX();
-      orientation.y = smo.getPose().getOrientation().getY();
-      orientation.z = smo.getPose().getOrientation().getZ();
-      orientation.w = smo.getPose().getOrientation().getW();
+  /**
+  * Create the axiom asserting a semantic map data property.
+  *
+  * @param smdp Data property message
+  * @param mos Map objects by identifier
+  * @param mas Map actions by identifier
+  * @param namespace Map namespace
+  * @param resolver IRI resolver of the map
+  * @return Axiom, or null if the subject is neither a map object nor a map
+  *   action
+  */
+  OWLAxiom createDataPropertyAxiom(SemMapDataProperty smdp,
+      Map<String, ?> mos, Map<String, ?> mas, String namespace,
+      SemanticMapIRIResolver resolver) {
+    OWLDataFactory factory = resolver.getFactory();
+    
+    if(mos.get(smdp.getSubject()) != null) {
+      // data properties linked to map object individuals get
+      // instantiated as OWL data properties
+      OWLDataProperty dp = null;
+      OWLNamedIndividual subjInd = null;
+      
+      dp = resolver.resolveOWLDataProperty(smdp.getId());
       
-      mo.setPoseQuaternion(position, orientation, 1.0);
+      subjInd = resolver.resolveMapOWLNamedIndividual(namespace,
+        smdp.getSubject());
       
-      if(mos.get(smo.getPartOf()) != null)
-        mos.get(smo.getPartOf()).addPhysicalPart(mo);
+      OWLDataPropertyAssertionAxiom dpAxiom = null;
+      if(smdp.getValueType() == smdp.VALUE_TYPE_BOOL) {
+        dpAxiom = factory.getOWLDataPropertyAssertionAxiom(dp,
+          subjInd, Boolean.parseBoolean(smdp.getValue()));
+      }
+      else if(smdp.getValueType() == smdp.VALUE_TYPE_FLOAT) {
+        dpAxiom = factory.getOWLDataPropertyAssertionAxiom(dp,
+          subjInd, Double.parseDouble(smdp.getValue()));
+      }
+      else if(smdp.getValueType() == smdp.VALUE_TYPE_INT) {
+        dpAxiom = factory.getOWLDataPropertyAssertionAxiom(dp,
+          subjInd, Integer.parseInt(smdp.getValue()));
+      }
+      else {
+        dpAxiom = factory.getOWLDataPropertyAssertionAxiom(dp,
+          subjInd, smdp.getValue());
+      }
+      
+      return dpAxiom;
+    }
+    else if(mas.get(smdp.getSubject()) != null) {
+      // data properties linked to map action classes get
+      // instantiated as OWL restrictions on data properties
+      OWLDataProperty dp = null;
+      org.semanticweb.owlapi.model.OWLClass actClass = null;
+      
+      dp = resolver.resolveOWLDataProperty(smdp.getId());
+      
+      actClass = resolver.resolveMapOWLClass(namespace, smdp.getSubject());
+      
+      OWLClassExpression dpExpr = null;
+      if(smdp.getValueType() == smdp.VALUE_TYPE_BOOL) {
+        dpExpr = factory.getOWLDataHasValue(dp,
+          factory.getOWLLiteral(Boolean.parseBoolean(smdp.getValue())));
+      }
+      else if(smdp.getValueType() == smdp.VALUE_TYPE_FLOAT) {
+        dpExpr = factory.getOWLDataHasValue(dp,
+          factory.getOWLLiteral(Double.parseDouble(smdp.getValue())));
+      }
+      else if(smdp.getValueType() == smdp.VALUE_TYPE_INT) {
+        dpExpr = factory.getOWLDataHasValue(dp,
+          factory.getOWLLiteral(Integer.parseInt(smdp.getValue())));
+      }
+      else {
+        dpExpr = factory.getOWLDataHasValue(dp,
+          factory.getOWLLiteral(smdp.getValue()));
+      }
+      
+      return factory.getOWLSubClassOfAxiom(actClass, dpExpr);
+    }
+    
+    return null;
+  }
+
+  HashMap<String, ObjectInstance> semMapObj2MapObj(
+      SemanticMapRegistry registry, String map_id, List<SemMapObject> smos) {
+    HashMap<String, ObjectInstance> mos = new
+      HashMap<String, ObjectInstance>();
+    
+    registry.ensurePoseCapacity(smos.size());
+    for(SemMapObject smo : smos) {
+      mos.put(smo.getId(), semMapObj2MapObj(registry, smo));
+    }
+    
+    // link the parts once all objects are indexed, such that parts may
+    // precede their parents
+    for(SemMapObject smo : smos) {
+      if(!smo.getPartOf().isEmpty()) {
+        String partOf = getReferencedId(mos, smo.getPartOf(), map_id);
+        
+        if(partOf != null) {
+          mos.get(partOf).addPhysicalPart(mos.get(smo.getId()));
+        }
+        else {
+          registry.addDanglingReference(smo.getId() + " partOf " +
+            smo.getPartOf());
+        }
+      }
     }
 
     return mos;
   }
   
-  private HashMap<String, SemanticMapAction> semMapAct2MapAct(String map_id,
-      List<SemMapAction> smas) {
+  SemanticMapObject semMapObj2MapObj(SemanticMapRegistry registry,
+      SemMapObject smo) {
+    SemanticMapObject mo = registry.getSemanticMapObject(smo.getId());
+
+    mo.addType(registry.getOWLClass(smo.getType()));
+
+    mo.setStamp(Math.round(smo.getHeader().getStamp().toSeconds()));
+    mo.setFrame(smo.getHeader().getFrameId());
+    
+    // read the pose into the columns of the registry, the pose matrix is
+    // computed from them once it is exported
+    SemanticMapPoses poses = registry.getPoses();
+    int index = poses.add(smo);
+    
+    mo.getDimensions().x = poses.getSize(index, 0);
+    mo.getDimensions().y = poses.getSize(index, 1);
+    mo.getDimensions().z = poses.getSize(index, 2);
+    
+    mo.setPose(poses, index);
+    
+    return mo;
+  }
+  
+  HashMap<String, SemanticMapAction> semMapAct2MapAct(
+      SemanticMapRegistry registry, String map_id, List<SemMapAction> smas) {
     HashMap<String, SemanticMapAction> mas = new
       HashMap<String, SemanticMapAction>();
 
     for(SemMapAction sma : smas) {
-      SemanticMapAction ma = SemanticMapAction.getSemanticMapAction(
-        sma.getId());
-      mas.put(sma.getId(), ma);
+      mas.put(sma.getId(), semMapAct2MapActUnlinked(registry, sma));
+    }
+    
+    // link the objects acted on and the subactions once all actions are
+    // indexed, without creating the objects or actions missing from the
+    // map
+    for(SemMapAction sma : smas) {
+      linkAction(registry, mas.get(sma.getId()), sma, registry.objects, mas,
+        map_id);
+    }
 
-      ma.addSuperClass(OWLClass.getOWLClass(sma.getType()));
-      ma.setAsserted(sma.getAsserted());
-      ma.setObjectActedOn(sma.getObjectActedOn());
-            
-      for(String iri : sma.getSubactions()) {
-        ma.addSubaction(iri);
+    return mas;
+  }
+  
+  /**
+  * Link the object acted on and the subactions of a map action.
+  * References to objects or actions of the map are linked to them, and
+  * references to external vocabulary, e.g., knowrob:Reaching, are passed
+  * on as IRIs. References to identifiers missing from the map are
+  * dangling and not linked.
+  *
+  * @param registry Registry of the conversion
+  * @param ma Map action to be linked
+  * @param sma Map action message
+  * @param objects Map objects by identifier
+  * @param actions Map actions by identifier
+  * @param namespace Map namespace
+  */
+  void linkAction(SemanticMapRegistry registry, SemanticMapAction ma,
+      SemMapAction sma, Map<String, ?> objects, Map<String, ?> actions,
+      String namespace) {
+    String objectActedOn = sma.getObjectActedOn();
+    
+    if(!objectActedOn.isEmpty()) {
+      String id = getReferencedId(objects, objectActedOn, namespace);
+      
+      if(id != null) {
+        ma.setObjectActedOn(registry.getSemanticMapObject(id));
       }
-      if(sma.getQuantification() == SemMapAction.UNION_OF) {
-        ma.setQuantification(SemanticMapAction.Quantification.UNION_OF);
+      else if(!isMapReference(objectActedOn, namespace)) {
+        ma.setObjectActedOn(objectActedOn);
       }
       else {
-        ma.setQuantification(SemanticMapAction.Quantification.INTERSECTION_OF);
+        registry.addDanglingReference(sma.getId() + " objectActedOn " +
+          objectActedOn);
+      }
+    }
+    
+    for(String iri : sma.getSubactions()) {
+      String id = getReferencedId(actions, iri, namespace);
+      
+      if(id != null) {
+        ma.addSubaction(registry.getSemanticMapAction(id));
+      }
+      else if(!isMapReference(iri, namespace)) {
+        ma.addSubaction(iri);
       }
-      ma.setUnordered(sma.getUnordered());
+      else {
+        registry.addDanglingReference(sma.getId() + " subAction " + iri);
+      }
+    }
+  }
+  
+  /**
+  * Check if a frame is the map frame. Frames are compared without a
+  * leading slash, and objects without a frame are in the map frame.
+  *
+  * @param frame Frame of an object
+  * @param mapFrame Map frame
+  * @return True if the frame is the map frame
+  */
+  static boolean isMapFrame(String frame, String mapFrame) {
+    if((frame == null) || frame.isEmpty()) {
+      return true;
+    }
+    
+    if(frame.startsWith("/")) {
+      frame = frame.substring(1);
+    }
+    if(mapFrame.startsWith("/")) {
+      mapFrame = mapFrame.substring(1);
     }
+    
+    return frame.equals(mapFrame);
+  }
+  
+  /**
+  * Check if a reference denotes an object or action of the map, i.e., is
+  * an identifier, or an IRI in the map namespace. Other references denote
+  * external vocabulary, e.g., prefixed or absolute IRIs.
+  *
+  * @param reference Reference to an object or action
+  * @param namespace Map namespace
+  * @return True if the reference denotes an object or action of the map
+  */
+  static boolean isMapReference(String reference, String namespace) {
+    return (reference.indexOf(':') < 0) || reference.startsWith("map:") ||
+      (!namespace.isEmpty() && reference.startsWith(namespace));
+  }
+  
+  /**
+  * Get the identifier of a referenced map object or action. References
+  * are identifiers, or IRIs in the map namespace, either abbreviated with
+  * the map: prefix or in full.
+  *
+  * @param index Map objects or actions by identifier
+  * @param reference Reference to a map object or action
+  * @param namespace Map namespace
+  * @return Identifier of the referenced object or action, or null if it
+  *   is missing from the map
+  */
+  static String getReferencedId(Map<String, ?> index, String reference,
+      String namespace) {
+    if(index.containsKey(reference)) {
+      return reference;
+    }
+    
+    String id = null;
+    if(reference.startsWith("map:")) {
+      id = reference.substring(4);
+    }
+    else if(!namespace.isEmpty() && reference.startsWith(namespace)) {
+      id = reference.substring(namespace.length());
+    }
+    
+    return ((id != null) && index.containsKey(id)) ? id : null;
+  }
+  
+  /**
+  * Convert a single map action message, linking its references as in
+  * the conversion of a whole map.
+  *
+  * @param registry Registry of the conversion
+  * @param sma Map action message
+  * @param objects Map object messages by identifier
+  * @param actions Map action messages by identifier
+  * @param namespace Map namespace
+  * @return Map action
+  */
+  SemanticMapAction semMapAct2MapAct(SemanticMapRegistry registry,
+      SemMapAction sma, Map<String, ?> objects, Map<String, ?> actions,
+      String namespace) {
+    SemanticMapAction ma = semMapAct2MapActUnlinked(registry, sma);
+    
+    linkAction(registry, ma, sma, objects, actions, namespace);
+    
+    return ma;
+  }
+  
+  /**
+  * Convert a map action message without its references to objects and
+  * other actions.
+  */
+  SemanticMapAction semMapAct2MapActUnlinked(SemanticMapRegistry registry,
+      SemMapAction sma) {
+    SemanticMapAction ma = registry.getSemanticMapAction(sma.getId());
 
-    return mas;
+    ma.addSuperClass(registry.getOWLClass(sma.getType()));
+    ma.setAsserted(sma.getAsserted());
+    
+    if(sma.getQuantification() == SemMapAction.UNION_OF) {
+      ma.setQuantification(SemanticMapAction.Quantification.UNION_OF);
+    }
+    else {
+      ma.setQuantification(SemanticMapAction.Quantification.INTERSECTION_OF);
+    }
+    ma.setUnordered(sma.getUnordered());
+    ma.setOrdering(subactionOrdering);
+    
+    return ma;
   }
 }
@@ -0,0 +1,372 @@
+package org.knowrob.map;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.ByteOrder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import java.util.zip.GZIPInputStream;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import org.ros.message.MessageDeserializer;
+import org.ros.message.MessageSerializationFactory;
+import org.ros.node.NodeConfiguration;
+
+import knowrob_semantic_map_msgs.*;
+
+/**
+* Offline converter of recorded semantic map messages into OWL files
+*
+* Reads serialized SemMap messages from files, converts them in parallel
+* without a ROS master, and writes one OWL file per map. Serialized
+* GenerateSemanticMapOWL requests are read as well, since a request
+* consists of its map only. Files ending with .gz are decompressed.
+*
+* Usage: SemanticMapToOWLBatch [-o directory] [-f format] [-z] [-s]
+*   [-j threads] file|directory...
+*
+* With -s, N-Triples are streamed while the maps are described.
+*
+*/
+
+public class SemanticMapToOWLBatch {
+  /**
+  * Converter shared by all maps
+  */
+  protected SemanticMapToOWL converter = new SemanticMapToOWL();
+
+  /**
+  * Factory of the deserializers of the map messages
+  */
+  protected MessageSerializationFactory serializationFactory;
+
+  /**
+  * Directory the OWL files are written to
+  */
+  protected File outputDirectory = new File(".");
+
+  /**
+  * Output format, or null for the default format
+  */
+  protected String format;
+
+  /**
+  * Compress the OWL files with gzip
+  */
+  protected boolean compress = false;
+
+  /**
+  * Number of maps converted in parallel
+  */
+  protected int threads = Runtime.getRuntime().availableProcessors();
+
+  public SemanticMapToOWLBatch() {
+    this.serializationFactory = NodeConfiguration.newPrivate().
+      getMessageSerializationFactory();
+  }
+
+  /**
+  * Get output directory.
+  *
+  * @return
+  */
+  public File getOutputDirectory() {
+    return outputDirectory;
+  }
+
+  /**
+  * Set output directory.
+  *
+  * @param outputDirectory
+  */
+  public void setOutputDirectory(File outputDirectory) {
+    this.outputDirectory = outputDirectory;
+  }
+
+  /**
+  * Get format.
+  *
+  * @return
+  */
+  public String getFormat() {
+    return format;
+  }
+
+  /**
+  * Set format.
+  *
+  * @param format
+  */
+  public void setFormat(String format) {
+    this.format = format;
+  }
+
+  /**
+  * Get compress.
+  *
+  * @return
+  */
+  public boolean getCompress() {
+    return compress;
+  }
+
+  /**
+  * Set compress.
+  *
+  * @param compress
+  */
+  public void setCompress(boolean compress) {
+    this.compress = compress;
+  }
+
+  /**
+  * Get streaming export.
+  *
+  * @return
+  */
+  public boolean getStreamingExport() {
+    return converter.streamingExport;
+  }
+
+  /**
+  * Set streaming export of N-Triples.
+  *
+  * @param streamingExport
+  */
+  public void setStreamingExport(boolean streamingExport) {
+    converter.streamingExport = streamingExport;
+  }
+
+  /**
+  * Get threads.
+  *
+  * @return
+  */
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+  * Set threads.
+  *
+  * @param threads
+  */
+  public void setThreads(int threads) {
+    this.threads = Math.max(1, threads);
+  }
+
+  /**
+  * Get the metrics of the conversions.
+  *
+  * @return
+  */
+  public SemanticMapMetrics getMetrics() {
+    return converter.metrics;
+  }
+
+  /**
+  * Read a serialized map message from a file.
+  *
+  * @param file Input file
+  * @return Semantic map message
+  */
+  public SemMap read(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+
+    try {
+      if(file.getName().endsWith(".gz")) {
+        in = new GZIPInputStream(in);
+      }
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+        (int) Math.min(file.length(), Integer.MAX_VALUE));
+      byte[] buffer = new byte[65536];
+      for(int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+        bytes.write(buffer, 0, n);
+      }
+
+      MessageDeserializer<SemMap> deserializer =
+        serializationFactory.newMessageDeserializer(SemMap._TYPE);
+
+      return deserializer.deserialize(ChannelBuffers.wrappedBuffer(
+        ByteOrder.LITTLE_ENDIAN, bytes.toByteArray()));
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+  * Convert a recorded map message into an OWL file in the output
+  * directory.
+  *
+  * @param file Input file
+  * @return Path, format, sizes and checksum of the written file, or null
+  *   if the map has no objects
+  */
+  public SemanticMapOWLWriter.Output convert(File file) throws Exception {
+    SemMap map = read(file);
+    long start = System.nanoTime();
+
+    try {
+      SemanticMapOWLWriter.Output output = converter.writeOWL(map,
+        converter.getOutputFile(outputDirectory, map, format, compress),
+        format, compress);
+      converter.metrics.recordRequest(System.nanoTime()-start);
+
+      return output;
+    }
+    catch(Exception e) {
+      converter.metrics.recordFailure();
+      throw e;
+    }
+  }
+
+  /**
+  * Convert recorded map messages in parallel and print a throughput
+  * summary.
+  *
+  * @param files Input files
+  * @return Number of failed conversions
+  */
+  public int convert(List<File> files) throws InterruptedException {
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    ArrayList<Future<SemanticMapOWLWriter.Output>> results = new
+      ArrayList<Future<SemanticMapOWLWriter.Output>>();
+    long start = System.nanoTime();
+
+    try {
+      for(final File file : files) {
+        results.add(workers.submit(
+            new Callable<SemanticMapOWLWriter.Output>() {
+          @Override
+          public SemanticMapOWLWriter.Output call() throws Exception {
+            return convert(file);
+          }
+        }));
+      }
+
+      int converted = 0;
+      int failed = 0;
+      long bytes = 0;
+
+      for(int i = 0; i < files.size(); i++) {
+        try {
+          SemanticMapOWLWriter.Output output = results.get(i).get();
+
+          if(output != null) {
+            System.out.println(files.get(i) + ": " + output);
+            bytes += output.getSize();
+            converted++;
+          }
+          else {
+            System.out.println(files.get(i) + ": map has no objects");
+          }
+        }
+        catch(ExecutionException e) {
+          System.out.println(files.get(i) + ": " + e.getCause());
+          failed++;
+        }
+      }
+
+      double seconds = (System.nanoTime()-start)*1e-9;
+      System.out.println(String.format(
+        "Converted %d of %d maps in %.3f s (%.2f maps/s, %.2f MB/s, " +
+        "%d threads)", converted, files.size(), seconds,
+        converted/seconds, bytes/seconds*1e-6, threads));
+      System.out.print(converter.metrics);
+
+      return failed;
+    }
+    finally {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+  * List the input files of the given files or directories. Directories
+  * contribute their regular files in name order.
+  *
+  * @param paths Files or directories
+  * @return Input files
+  */
+  public static List<File> listFiles(List<String> paths) {
+    ArrayList<File> files = new ArrayList<File>();
+
+    for(String path : paths) {
+      File file = new File(path);
+
+      if(file.isDirectory()) {
+        File[] children = file.listFiles();
+        if(children == null) {
+          continue;
+        }
+        Arrays.sort(children);
+
+        for(File child : children) {
+          if(child.isFile()) {
+            files.add(child);
+          }
+        }
+      }
+      else {
+        files.add(file);
+      }
+    }
+
+    return files;
+  }
+
+  public static void main(String[] args) throws Exception {
+    SemanticMapToOWLBatch batch = new SemanticMapToOWLBatch();
+    ArrayList<String> paths = new ArrayList<String>();
+
+    for(int i = 0; i < args.length; i++) {
+      if(args[i].equals("-o") && (i+1 < args.length)) {
+        batch.setOutputDirectory(new File(args[++i]));
+      }
+      else if(args[i].equals("-f") && (i+1 < args.length)) {
+        batch.setFormat(args[++i]);
+      }
+      else if(args[i].equals("-z")) {
+        batch.setCompress(true);
+      }
+      else if(args[i].equals("-s")) {
+        batch.setStreamingExport(true);
+      }
+      else if(args[i].equals("-j") && (i+1 < args.length)) {
+        batch.setThreads(Integer.parseInt(args[++i]));
+      }
+      else if(args[i].startsWith("-")) {
+        paths.clear();
+        break;
+      }
+      else {
+        paths.add(args[i]);
+      }
+    }
+
+    if(paths.isEmpty()) {
+      System.out.println("Usage: SemanticMapToOWLBatch [-o directory] " +
+        "[-f rdfxml|turtle|ntriples|functional] [-z] [-s] [-j threads] " +
+        "file|directory...");
+      System.exit(2);
+    }
+
+    System.exit((batch.convert(listFiles(paths)) > 0) ? 1 : 0);
+  }
+}
@@ -1,10 +1,25 @@
 package org.knowrob.map;
 
+import java.io.IOException;
+
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.Vector;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Vector3d;
+
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.*;
 import org.semanticweb.owlapi.util.DefaultPrefixManager;
@@ -25,14 +40,109 @@ import org.knowrob.owl.utils.OWLImportExport;
 
 public class SemanticMapToOWLExport extends OWLImportExport {
   public final static String MAP_FRAME = "map";
+  public final static int PARTITION_SIZE = 256;
   
   /**
   * Map frame
   */
   protected String mapFrame;
   
+  /**
+  * Prefix manager of this export, initialized from the shared
+  * PREFIX_MANAGER. The descriptions of this export only read this prefix
+  * manager, such that the shared PREFIX_MANAGER is never modified.
+  */
+  protected DefaultPrefixManager prefixManager;
+  
+  /**
+  * IRI resolver of the described map, valid as long as the prefixes of
+  * this export do not change
+  */
+  protected SemanticMapIRIResolver iriResolver;
+  
+  /**
+  * Buffer axioms and add them to the ontology in batches
+  */
+  protected boolean batchAxioms = true;
+  
+  /**
+  * Buffered axioms, not yet added to the buffered ontology
+  */
+  protected LinkedHashSet<OWLAxiom> axiomBuffer = new
+    LinkedHashSet<OWLAxiom>();
+  
+  /**
+  * Ontology the buffered axioms belong to
+  */
+  protected OWLOntology bufferedOntology;
+  
+  /**
+  * Pool describing the partitions of large maps in parallel, or null if
+  * maps are described sequentially
+  */
+  protected ForkJoinPool forkJoinPool;
+  
+  /**
+  * Maximum number of objects or actions per partition
+  */
+  protected int partitionSize;
+  
+  /**
+  * Objects and timestamps whose description is deferred until the map
+  * is described in parallel, or null if descriptions are not deferred
+  */
+  protected ArrayList<ObjectInstance> deferredObjects;
+  protected ArrayList<OWLNamedIndividual> deferredTimestamps;
+  
+  /**
+  * Map instance of the current description, to which the described
+  * objects belong
+  */
+  protected OWLNamedIndividual mapInstance;
+  
+  /**
+  * Time point instances of the current description by timestamp, such
+  * that objects with the same timestamp share a single time point
+  */
+  protected HashMap<Long, OWLNamedIndividual> timePoints = new
+    HashMap<Long, OWLNamedIndividual>();
+  
+  /**
+  * Classes of the subactions and the restrictions on them by subaction
+  * IRI, shared by all actions having the same subactions, valid as long
+  * as the prefixes of this export do not change
+  */
+  protected HashMap<String, OWLClass> subactionClasses = new
+    HashMap<String, OWLClass>();
+  protected HashMap<String, OWLClassExpression> subactionRestrictions = new
+    HashMap<String, OWLClassExpression>();
+  
+  /**
+  * Descriptions of the cycles in the compiled actions
+  */
+  protected ArrayList<String> subactionCycles = new ArrayList<String>();
+  
   public SemanticMapToOWLExport() {
     this.mapFrame = MAP_FRAME;
+    this.partitionSize = PARTITION_SIZE;
+    this.prefixManager = new DefaultPrefixManager(PREFIX_MANAGER);
+  }
+  
+  /**
+  * Copy constructor: create an export describing a partition of the map
+  * described by another export.
+  *
+  * @param export Export to be copied
+  */
+  protected SemanticMapToOWLExport(SemanticMapToOWLExport export) {
+    this.mapFrame = export.mapFrame;
+    this.prefixManager = new DefaultPrefixManager(export.prefixManager);
+    this.batchAxioms = export.batchAxioms;
+    this.partitionSize = export.partitionSize;
+    this.mapInstance = export.mapInstance;
+    this.timePoints.putAll(export.timePoints);
+    this.subactionClasses.putAll(export.subactionClasses);
+    this.subactionRestrictions.putAll(export.subactionRestrictions);
   }
   
   /**
@@ -52,6 +162,162 @@ public class SemanticMapToOWLExport extends OWLImportExport {
   public void setMapFrame(String mapFrame) {
     this.mapFrame = mapFrame;
   }
+  
+  /**
+  * Get prefix manager.
+  *
+  * @return
+  */
+  public DefaultPrefixManager getPrefixManager() {
+    return prefixManager;
+  }
+
+  /**
+  * Set prefix manager.
+  * 
+  * @param prefixManager
+  */
+  public void setPrefixManager(DefaultPrefixManager prefixManager) {
+    this.prefixManager = prefixManager;
+    this.iriResolver = null;
+    this.subactionClasses.clear();
+    this.subactionRestrictions.clear();
+  }
+  
+  /**
+  * Get the descriptions of the cycles found by the last compilation of
+  * actions.
+  *
+  * @return
+  */
+  public List<String> getSubactionCycles() {
+    return subactionCycles;
+  }
+  
+  /**
+  * Get fork join pool.
+  *
+  * @return
+  */
+  public ForkJoinPool getForkJoinPool() {
+    return forkJoinPool;
+  }
+
+  /**
+  * Set fork join pool, null to describe maps sequentially.
+  * 
+  * @param forkJoinPool
+  */
+  public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+    this.forkJoinPool = forkJoinPool;
+  }
+  
+  /**
+  * Get partition size.
+  *
+  * @return
+  */
+  public int getPartitionSize() {
+    return partitionSize;
+  }
+
+  /**
+  * Set partition size.
+  * 
+  * @param partitionSize
+  */
+  public void setPartitionSize(int partitionSize) {
+    this.partitionSize = Math.max(1, partitionSize);
+  }
+  
+  /**
+  * Get batch axioms.
+  *
+  * @return
+  */
+  public boolean getBatchAxioms() {
+    return batchAxioms;
+  }
+
+  /**
+  * Set batch axioms.
+  * 
+  * @param batchAxioms
+  */
+  public void setBatchAxioms(boolean batchAxioms) {
+    if(!batchAxioms && (bufferedOntology != null)) {
+      flushAxioms(bufferedOntology);
+    }
+    
+    this.batchAxioms = batchAxioms;
+  }
+  
+  /**
+  * Add an axiom to an ontology. In batch mode, the axiom is buffered
+  * until the axioms are flushed.
+  *
+  * @param ontology Ontology the axiom is added to
+  * @param axiom Axiom
+  */
+  public void addAxiom(OWLOntology ontology, OWLAxiom axiom) {
+    if(batchAxioms) {
+      if((bufferedOntology != null) && (bufferedOntology != ontology)) {
+        flushAxioms(bufferedOntology);
+      }
+      
+      bufferedOntology = ontology;
+      axiomBuffer.add(axiom);
+    }
+    else {
+      ontology.getOWLOntologyManager().addAxiom(ontology, axiom);
+    }
+  }
+  
+  /**
+  * Add axioms to an ontology, see {@link #addAxiom(OWLOntology, OWLAxiom)}.
+  *
+  * @param ontology Ontology the axioms are added to
+  * @param axioms Axioms
+  */
+  public void addAxioms(OWLOntology ontology, Collection<? extends OWLAxiom>
+      axioms) {
+    for(OWLAxiom axiom : axioms) {
+      addAxiom(ontology, axiom);
+    }
+  }
+  
+  /**
+  * Add the buffered axioms of an ontology in a single batch of changes.
+  *
+  * @param ontology Ontology whose buffered axioms are added
+  */
+  public void flushAxioms(OWLOntology ontology) {
+    if((bufferedOntology == ontology) && !axiomBuffer.isEmpty()) {
+      ontology.getOWLOntologyManager().addAxioms(ontology, axiomBuffer);
+      axiomBuffer = new LinkedHashSet<OWLAxiom>();
+    }
+    
+    if(bufferedOntology == ontology) {
+      bufferedOntology = null;
+    }
+  }
+  
+  /**
+  * Get the IRI resolver of the described map, creating it if necessary.
+  *
+  * @param ontology Ontology of the described map
+  * @return
+  */
+  public SemanticMapIRIResolver getIRIResolver(OWLOntology ontology) {
+    OWLDataFactory factory = ontology.getOWLOntologyManager().
+      getOWLDataFactory();
+    
+    if((iriResolver == null) || (iriResolver.getFactory() != factory)) {
+      iriResolver = new SemanticMapIRIResolver(this.prefixManager, factory);
+    }
+    
+    return iriResolver;
+  }
 
   public OWLOntology createOWLMapWithActionDescription(
       String namespace, String map_id, ArrayList<ObjectInstance> objects,
@@ -63,21 +329,85 @@ public class SemanticMapToOWLExport extends OWLImportExport {
   public OWLOntology createOWLMapWithActionDescription(
       String namespace, String map_id, ArrayList<ObjectInstance> objects,
       ArrayList<SemanticMapAction> actions, ArrayList<String[]> address) {
-    OWLOntology ontology = this.createOWLMapDescription(namespace, map_id,
-      objects, address);
+    this.prefixManager.setPrefix("map:", namespace);
+    this.iriResolver = null;
+    this.timePoints.clear();
+    compileActions(actions);
+    
+    OWLOntology ontology = null;
+    
+    try {
+      if((forkJoinPool != null) && (objects.size() > partitionSize)) {
+        // collect the object descriptions requested by the map
+        // description and create them in parallel afterwards
+        deferredObjects = new ArrayList<ObjectInstance>();
+        deferredTimestamps = new ArrayList<OWLNamedIndividual>();
+        
+        ontology = this.createOWLMapDescription(namespace, map_id,
+          objects, address);
+        
+        final List<ObjectInstance> objs = deferredObjects;
+        final List<OWLNamedIndividual> stamps = deferredTimestamps;
+        deferredObjects = null;
+        deferredTimestamps = null;
+        
+        if(ontology != null) {
+          addAxioms(ontology, forkJoinPool.invoke(new PartitionTask(0,
+              objs.size()) {
+            @Override
+            protected void describe(SemanticMapToOWLExport export,
+                int index, OWLOntology scratch) {
+              export.createSemObjectInstanceDescription(objs.get(index),
+                stamps.get(index), scratch);
+            }
+          }));
+        }
+      }
+      else {
+        ontology = this.createOWLMapDescription(namespace, map_id,
+          objects, address);
+      }
+    }
+    finally {
+      deferredObjects = null;
+      deferredTimestamps = null;
+    }
 
     if(ontology != null) {
+      flushAxioms(ontology);
+      
       try {
-        OWLOntologyManager manager = ontology.getOWLOntologyManager();
-        OWLDataFactory factory = manager.getOWLDataFactory();
-        DefaultPrefixManager pm = PREFIX_MANAGER;
-        
-        for(SemanticMapAction map_act : actions) {
-          createActionClass(map_act, ontology);
-          if(map_act.getAsserted()) {
-            createActionInst(map_act, ontology);
+        if((forkJoinPool != null) && (actions.size() > partitionSize)) {
+          final List<SemanticMapAction> acts = actions;
+          
+          // partitions share the subaction restrictions created here
+          for(SemanticMapAction map_act : actions) {
+            for(SemanticMapAction subact : map_act.getSubactions()) {
+              getSubactionRestriction(subact, ontology);
+            }
           }
-        }        
+          
+          addAxioms(ontology, forkJoinPool.invoke(new PartitionTask(0,
+              acts.size()) {
+            @Override
+            protected void describe(SemanticMapToOWLExport export,
+                int index, OWLOntology scratch) {
+              export.createActionClass(acts.get(index), scratch);
+              if(acts.get(index).getAsserted()) {
+                export.createActionInst(acts.get(index), scratch);
+              }
+            }
+          }));
+        }
+        else {
+          for(SemanticMapAction map_act : actions) {
+            createActionClass(map_act, ontology);
+            if(map_act.getAsserted()) {
+              createActionInst(map_act, ontology);
+            }
+          }
+        }
+        flushAxioms(ontology);
       }
       catch(Exception e) {
         ontology = null;
@@ -88,56 +418,139 @@ public class SemanticMapToOWLExport extends OWLImportExport {
     return ontology;
   }
   
+  /**
+  * Stream the description of a map with its actions, creating it in
+  * chunks of at most the partition size which are written as soon as
+  * they are complete, see SemanticMapTripleStream. The header of the
+  * map is written before the chunks of its objects and actions.
+  *
+  * @param namespace Map namespace
+  * @param map_id Map identifier
+  * @param objects Map objects
+  * @param actions Map actions
+  * @param address Map address, or null
+  * @param stream Stream the description is written to
+  * @return True if the map was described
+  */
+  public boolean writeOWLMapWithActionDescription(String namespace,
+      String map_id, ArrayList<ObjectInstance> objects,
+      ArrayList<SemanticMapAction> actions, ArrayList<String[]> address,
+      SemanticMapTripleStream stream) throws IOException {
+    this.prefixManager.setPrefix("map:", namespace);
+    this.iriResolver = null;
+    this.timePoints.clear();
+    compileActions(actions);
+    
+    OWLOntology header = null;
+    List<ObjectInstance> objs = null;
+    List<OWLNamedIndividual> stamps = null;
+    
+    try {
+      // the header receives the map instance and all time points, the
+      // object descriptions are deferred to the chunks
+      deferredObjects = new ArrayList<ObjectInstance>();
+      deferredTimestamps = new ArrayList<OWLNamedIndividual>();
+      
+      header = this.createOWLMapDescription(namespace, map_id, objects,
+        address);
+      
+      objs = deferredObjects;
+      stamps = deferredTimestamps;
+    }
+    finally {
+      deferredObjects = null;
+      deferredTimestamps = null;
+    }
+    
+    if(header == null) {
+      return false;
+    }
+    flushAxioms(header);
+    stream.writeHeader(header);
+    
+    for(int from = 0; from < objs.size(); from += partitionSize) {
+      OWLOntology chunk = stream.createChunk();
+      
+      for(int i = from; i < Math.min(from+partitionSize, objs.size());
+          i++) {
+        this.createSemObjectInstanceDescription(objs.get(i),
+          stamps.get(i), chunk);
+      }
+      
+      flushAxioms(chunk);
+      stream.write(chunk);
+    }
+    
+    for(int from = 0; from < actions.size(); from += partitionSize) {
+      OWLOntology chunk = stream.createChunk();
+      
+      for(int i = from; i < Math.min(from+partitionSize, actions.size());
+          i++) {
+        createActionClass(actions.get(i), chunk);
+        if(actions.get(i).getAsserted()) {
+          createActionInst(actions.get(i), chunk);
+        }
+      }
+      
+      flushAxioms(chunk);
+      stream.write(chunk);
+    }
+    
+    return true;
+  }
+  
+  /**
+  * Create the description of a single map object, as part of a map
+  * described by this export.
+  *
+  * @param mapObject Map object
+  * @param ontology Ontology the description is added to
+  * @return Object instance
+  */
+  public OWLNamedIndividual createMapObjectDescription(ObjectInstance
+      mapObject, OWLOntology ontology) {
+    // time points of earlier descriptions may have been removed from the
+    // ontology since
+    timePoints.clear();
+    
+    try {
+      return this.createSemObjectInstanceDescription(mapObject, null,
+        ontology);
+    }
+    finally {
+      flushAxioms(ontology);
+    }
+  }
+  
   public OWLClass createActionClass(SemanticMapAction mapAction,
       OWLOntology ontology) {
     OWLOntologyManager manager = ontology.getOWLOntologyManager();
     OWLDataFactory factory = manager.getOWLDataFactory();
-    DefaultPrefixManager pm = PREFIX_MANAGER;
+    SemanticMapIRIResolver resolver = getIRIResolver(ontology);
     
-    OWLClass actClass = factory.getOWLClass(
-      "map:"+mapAction.getShortName(), pm);
-    manager.addAxiom(ontology, factory.getOWLDeclarationAxiom(actClass));
+    OWLClass actClass = resolver.getOWLClass(
+      "map:"+mapAction.getShortName());
+    addAxiom(ontology, factory.getOWLDeclarationAxiom(actClass));
     OWLClass actSuperClass = null;
     
     for(org.knowrob.owl.OWLClass s : mapAction.getSuperClasses()) {
-      IRI classIRI = IRI.create(s.getIRI());
-      if(pm.getPrefix(classIRI.getNamespace()) != null) {
-        actSuperClass = factory.getOWLClass(s.getIRI(), pm);
-      }
-      else if(!classIRI.isAbsolute()) {
-        actSuperClass = factory.getOWLClass("map:"+s.getShortName(), pm);
-      }
-      else {
-        actSuperClass = factory.getOWLClass(classIRI);
-      }
+      actSuperClass = resolver.resolveOWLClass(s.getIRI(), "map:");
     
-      manager.addAxiom(ontology, factory.getOWLSubClassOfAxiom(actClass,
+      addAxiom(ontology, factory.getOWLSubClassOfAxiom(actClass,
         actSuperClass)); 
     }
 
-    OWLObjectProperty objectActedOnProp = factory.getOWLObjectProperty(
-      "knowrob:objectActedOn", pm);
+    OWLObjectProperty objectActedOnProp = resolver.getOWLObjectProperty(
+      "knowrob:objectActedOn");
     SemanticMapObject o = mapAction.getObjectActedOn();
     
     if(o != null) {
-      IRI objIRI = IRI.create(o.getIRI());
-      OWLNamedIndividual objectActedOn = null;
-
-      if(pm.getPrefix(objIRI.getNamespace()) != null) {
-        objectActedOn = factory.getOWLNamedIndividual(
-          o.getIRI(), pm);
-      }
-      else if(!objIRI.isAbsolute()) {
-        objectActedOn = factory.getOWLNamedIndividual(
-          "map:"+o.getShortName(), pm);
-      }
-      else {
-        objectActedOn = factory.getOWLNamedIndividual(objIRI);
-      }
+      OWLNamedIndividual objectActedOn = resolver.resolveOWLNamedIndividual(
+        o.getIRI(), "map:");
     
       OWLClassExpression objectActedOnHasValue = factory.getOWLObjectHasValue(
         objectActedOnProp, objectActedOn);
-      manager.addAxiom(ontology, factory.getOWLSubClassOfAxiom(actClass,
+      addAxiom(ontology, factory.getOWLSubClassOfAxiom(actClass,
         objectActedOnHasValue));
     }
     
@@ -148,61 +561,30 @@ public class SemanticMapToOWLExport extends OWLImportExport {
       Vector<OWLClass> subactClasses = new Vector<OWLClass>();
       
       for(SemanticMapAction subact : mapAction.getSubactions()) {
-        IRI subactIRI = IRI.create(subact.getIRI());
-        OWLClass subactClass = null;
-        
-        if(pm.getPrefix(subactIRI.getNamespace()) != null) {
-          subactClass = factory.getOWLClass(subact.getIRI(), pm);
-        }
-        else if(!subactIRI.isAbsolute()) {
-          subactClass = factory.getOWLClass("map:"+subact.getShortName(), pm);
-        }
-        else {
-          subactClass = factory.getOWLClass(subactIRI);
-        }
-        subactClasses.add(subactClass);
-        
-        OWLObjectProperty subactProp = factory.getOWLObjectProperty(
-          "knowrob:subAction", pm);
-        subactRestr.add(factory.getOWLObjectSomeValuesFrom(subactProp,
-          subactClass));
+        subactRestr.add(getSubactionRestriction(subact, ontology));
+        subactClasses.add(subactionClasses.get(subact.getIRI()));
       }
       
       if(mapAction.getQuantification() ==
           SemanticMapAction.Quantification.INTERSECTION_OF) {
         if(!mapAction.getUnordered()) {
-          for(int i = 0; i < subactClasses.size(); i++) {
-            for(int j = i+1; j < subactClasses.size(); j++) {
-              OWLClass ordClass = factory.getOWLClass(
-                "map:"+mapAction.getShortName()+"_Ordering"+i+j, pm);
-              manager.addAxiom(ontology, factory.getOWLDeclarationAxiom(
-                ordClass));
-                
-              OWLClass ordSuperClass = factory.getOWLClass(
-                "knowrob:PartialOrdering-Strict", pm);
-              manager.addAxiom(ontology, factory.getOWLSubClassOfAxiom(ordClass,
-                ordSuperClass)); 
-
-              OWLObjectProperty beforeProp = factory.getOWLObjectProperty(
-                "knowrob:occursBeforeInOrdering", pm);
-              OWLClassExpression beforeExpr = factory.getOWLObjectSomeValuesFrom(
-                beforeProp, subactClasses.get(i));
-              manager.addAxiom(ontology, factory.getOWLSubClassOfAxiom(
-                ordClass, beforeExpr));
-                
-              OWLObjectProperty afterProp = factory.getOWLObjectProperty(
-                "knowrob:occursAfterInOrdering", pm);
-              OWLClassExpression afterExpr = factory.getOWLObjectSomeValuesFrom(
-                afterProp, subactClasses.get(j));
-              manager.addAxiom(ontology, factory.getOWLSubClassOfAxiom(
-                ordClass, afterExpr));
-            
-              OWLObjectProperty ordProp = factory.getOWLObjectProperty(
-                "knowrob:orderingConstraints", pm);
-              OWLClassExpression ordExpr = factory.getOWLObjectSomeValuesFrom(
-                ordProp, ordClass);
-                
-              subactRestr.add(ordExpr);
+          if(mapAction.getOrdering() ==
+              SemanticMapAction.Ordering.SEQUENTIAL) {
+            // constrain adjacent subactions only, the ordering of all
+            // other pairs follows by transitivity
+            for(int i = 0; i+1 < subactClasses.size(); i++) {
+              subactRestr.add(createOrderingConstraint(
+                "map:"+mapAction.getShortName()+"_Ordering"+i+"_"+(i+1),
+                subactClasses.get(i), subactClasses.get(i+1), ontology));
+            }
+          }
+          else {
+            for(int i = 0; i < subactClasses.size(); i++) {
+              for(int j = i+1; j < subactClasses.size(); j++) {
+                subactRestr.add(createOrderingConstraint(
+                  "map:"+mapAction.getShortName()+"_Ordering"+i+j,
+                  subactClasses.get(i), subactClasses.get(j), ontology));
+              }
             }
           }
         }
@@ -213,42 +595,233 @@ public class SemanticMapToOWLExport extends OWLImportExport {
         subactExpr = factory.getOWLObjectUnionOf(subactRestr);
       }
       
-      manager.addAxiom(ontology, factory.getOWLSubClassOfAxiom(
+      addAxiom(ontology, factory.getOWLSubClassOfAxiom(
         actClass, subactExpr));
     }
     
     return actClass;
   }
   
+  /**
+  * Get the restriction on a subaction, creating it and the class of the
+  * subaction unless they have been created before.
+  *
+  * @param subaction Subaction
+  * @param ontology Ontology of the described map
+  * @return Existential restriction of knowrob:subAction to the class of
+  *   the subaction
+  */
+  protected OWLClassExpression getSubactionRestriction(SemanticMapAction
+      subaction, OWLOntology ontology) {
+    OWLClassExpression restriction = subactionRestrictions.get(
+      subaction.getIRI());
+    
+    if(restriction == null) {
+      OWLDataFactory factory = ontology.getOWLOntologyManager().
+        getOWLDataFactory();
+      SemanticMapIRIResolver resolver = getIRIResolver(ontology);
+      
+      OWLClass subactClass = resolver.resolveOWLClass(subaction.getIRI(),
+        "map:");
+      restriction = factory.getOWLObjectSomeValuesFrom(
+        resolver.getOWLObjectProperty("knowrob:subAction"), subactClass);
+      
+      subactionClasses.put(subaction.getIRI(), subactClass);
+      subactionRestrictions.put(subaction.getIRI(), restriction);
+    }
+    
+    return restriction;
+  }
+  
+  /**
+  * Compile the subaction graph of actions to be described, finding its
+  * cycles in a single depth-first traversal which visits each action
+  * once. Cycles are valid OWL and are only reported, all subactions are
+  * described. The traversal starts from the actions in IRI order, such
+  * that the reported cycles do not depend on the order of the actions.
+  * Previously created subaction restrictions are discarded.
+  *
+  * @param actions Actions to be described
+  * @return Descriptions of the cycles, as the short names of the actions
+  *   along each cycle
+  */
+  public List<String> compileActions(List<SemanticMapAction> actions) {
+    subactionClasses.clear();
+    subactionRestrictions.clear();
+    subactionCycles = new ArrayList<String>();
+    
+    ArrayList<SemanticMapAction> roots = new ArrayList<SemanticMapAction>(
+      actions);
+    Collections.sort(roots, new Comparator<SemanticMapAction>() {
+      @Override
+      public int compare(SemanticMapAction a, SemanticMapAction b) {
+        return a.getIRI().compareTo(b.getIRI());
+      }
+    });
+    
+    // actions on the current path are visiting, all others are done
+    HashMap<SemanticMapAction, Boolean> visiting = new
+      HashMap<SemanticMapAction, Boolean>();
+    ArrayList<SemanticMapAction> path = new ArrayList<SemanticMapAction>();
+    ArrayList<Integer> next = new ArrayList<Integer>();
+    
+    for(SemanticMapAction root : roots) {
+      if(visiting.containsKey(root)) {
+        continue;
+      }
+      visiting.put(root, true);
+      path.add(root);
+      next.add(0);
+      
+      while(!path.isEmpty()) {
+        int top = path.size()-1;
+        SemanticMapAction action = path.get(top);
+        int index = next.get(top);
+        
+        if(index >= action.getSubactions().size()) {
+          visiting.put(action, false);
+          path.remove(top);
+          next.remove(top);
+          continue;
+        }
+        next.set(top, index+1);
+        
+        SemanticMapAction subaction = action.getSubactions().get(index);
+        Boolean state = visiting.get(subaction);
+        
+        if(state == null) {
+          visiting.put(subaction, true);
+          path.add(subaction);
+          next.add(0);
+        }
+        else if(state) {
+          StringBuilder cycle = new StringBuilder();
+          for(int i = path.lastIndexOf(subaction); i <= top; i++) {
+            cycle.append(path.get(i).getShortName()).append(" -> ");
+          }
+          subactionCycles.add(cycle.append(subaction.getShortName()).
+            toString());
+        }
+      }
+    }
+    
+    return subactionCycles;
+  }
+  
+  /**
+  * Create a strict partial ordering of two subactions.
+  *
+  * @param ordering Abbreviated IRI of the ordering class
+  * @param before Class of the subaction occurring before
+  * @param after Class of the subaction occurring after
+  * @param ontology Ontology the ordering is added to
+  * @return Ordering constraint on the action class
+  */
+  protected OWLClassExpression createOrderingConstraint(String ordering,
+      OWLClass before, OWLClass after, OWLOntology ontology) {
+    OWLDataFactory factory = ontology.getOWLOntologyManager().
+      getOWLDataFactory();
+    SemanticMapIRIResolver resolver = getIRIResolver(ontology);
+    
+    OWLClass ordClass = resolver.getOWLClass(ordering);
+    addAxiom(ontology, factory.getOWLDeclarationAxiom(ordClass));
+      
+    OWLClass ordSuperClass = resolver.getOWLClass(
+      "knowrob:PartialOrdering-Strict");
+    addAxiom(ontology, factory.getOWLSubClassOfAxiom(ordClass,
+      ordSuperClass)); 
+
+    OWLObjectProperty beforeProp = resolver.getOWLObjectProperty(
+      "knowrob:occursBeforeInOrdering");
+    OWLClassExpression beforeExpr = factory.getOWLObjectSomeValuesFrom(
+      beforeProp, before);
+    addAxiom(ontology, factory.getOWLSubClassOfAxiom(ordClass, beforeExpr));
+      
+    OWLObjectProperty afterProp = resolver.getOWLObjectProperty(
+      "knowrob:occursAfterInOrdering");
+    OWLClassExpression afterExpr = factory.getOWLObjectSomeValuesFrom(
+      afterProp, after);
+    addAxiom(ontology, factory.getOWLSubClassOfAxiom(ordClass, afterExpr));
+  
+    OWLObjectProperty ordProp = resolver.getOWLObjectProperty(
+      "knowrob:orderingConstraints");
+    
+    return factory.getOWLObjectSomeValuesFrom(ordProp, ordClass);
+  }
+  
   public OWLNamedIndividual createActionInst(SemanticMapAction mapAction,
       OWLOntology ontology) {
     OWLOntologyManager manager = ontology.getOWLOntologyManager();
     OWLDataFactory factory = manager.getOWLDataFactory();
-    DefaultPrefixManager pm = PREFIX_MANAGER;
+    SemanticMapIRIResolver resolver = getIRIResolver(ontology);
 
-    OWLClass actClass = factory.getOWLClass(
-      "map:"+mapAction.getShortName(), pm);
-    OWLNamedIndividual actInstance = factory.getOWLNamedIndividual(
-      "map:"+mapAction.getShortName()+"_Assertion", pm);
+    OWLClass actClass = resolver.getOWLClass(
+      "map:"+mapAction.getShortName());
+    OWLNamedIndividual actInstance = resolver.getOWLNamedIndividual(
+      "map:"+mapAction.getShortName()+"_Assertion");
     
-    manager.addAxiom(ontology, factory.getOWLClassAssertionAxiom(actClass,
+    addAxiom(ontology, factory.getOWLClassAssertionAxiom(actClass,
       actInstance)); 
     
     return actInstance;
   }
   
+  /**
+  * Create the description of a map and its objects, like the inherited
+  * description, but with the prefixes of this export.
+  */
+  @Override
+  public OWLOntology createOWLMapDescription(String namespace, String map_id,
+      ArrayList<ObjectInstance> map, ArrayList<String[]> address) {
+    OWLOntology ontology = null;
+    
+    try {
+      OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+      OWLDataFactory factory = manager.getOWLDataFactory();
+      
+      ontology = manager.createOntology(IRI.create(namespace));
+      this.prefixManager.setPrefix("map:", namespace);
+      this.iriResolver = null;
+      
+      // import Knowrob ontology
+      manager.applyChange(new AddImport(ontology,
+        factory.getOWLImportsDeclaration(IRI.create(KNOWROB))));
+      
+      OWLNamedIndividual time_inst = createTimePointInst(
+        System.currentTimeMillis()/1000, ontology);
+      mapInstance = createSemMapInst(namespace, map_id, ontology);
+      
+      if(address != null) {
+        createSemMapAddress(mapInstance, address, ontology);
+      }
+      
+      for(ObjectInstance map_obj : map) {
+        createSemObjectInstanceDescription(map_obj, time_inst, ontology);
+      }
+    }
+    catch(Exception e) {
+      ontology = null;
+      e.printStackTrace();
+    }
+    
+    return ontology;
+  }
+  
   @Override
   public OWLNamedIndividual createSemMapInst(String namespace, String map_id,
       OWLOntology ontology) {
     OWLOntologyManager manager = ontology.getOWLOntologyManager();
     OWLDataFactory factory = manager.getOWLDataFactory();
-    DefaultPrefixManager pm = PREFIX_MANAGER;
+    SemanticMapIRIResolver resolver = getIRIResolver(ontology);
     
-    OWLNamedIndividual sem_map_inst = super.createSemMapInst(namespace,
-      map_id, ontology);
+    OWLNamedIndividual sem_map_inst = resolver.getOWLNamedIndividual(
+      "map:"+map_id);
+    addAxiom(ontology, factory.getOWLClassAssertionAxiom(
+      resolver.getOWLClass("knowrob:SemanticEnvironmentMap"),
+      sem_map_inst));
 
-    OWLDataProperty prop = factory.getOWLDataProperty("knowrob:tfFrame", pm);
-    manager.addAxiom(ontology, factory.getOWLDataPropertyAssertionAxiom(
+    OWLDataProperty prop = resolver.getOWLDataProperty("knowrob:tfFrame");
+    addAxiom(ontology, factory.getOWLDataPropertyAssertionAxiom(
       prop, sem_map_inst, this.mapFrame));
     
     return sem_map_inst;
@@ -259,25 +832,17 @@ public class SemanticMapToOWLExport extends OWLImportExport {
       OWLOntology ontology) {
     OWLOntologyManager manager = ontology.getOWLOntologyManager();
     OWLDataFactory factory = manager.getOWLDataFactory();
-    DefaultPrefixManager pm = PREFIX_MANAGER;
+    DefaultPrefixManager pm = this.prefixManager;
+    SemanticMapIRIResolver resolver = getIRIResolver(ontology);
 
-    OWLNamedIndividual objInstance = factory.getOWLNamedIndividual(
-      "map:"+mapObject.getShortName(), pm);
+    OWLNamedIndividual objInstance = resolver.getOWLNamedIndividual(
+      "map:"+mapObject.getShortName());
     OWLClass objClass = null;
     
     for(org.knowrob.owl.OWLClass t : mapObject.getTypes()) {
-      IRI classIRI = IRI.create(t.getIRI());
-      if(pm.getPrefix(classIRI.getNamespace()) != null) {
-        objClass = factory.getOWLClass(t.getIRI(), pm);
-      }
-      else if(!classIRI.isAbsolute()) {
-        objClass = factory.getOWLClass("knowrob:"+t.getShortName(), pm);
-      }
-      else {
-        objClass = factory.getOWLClass(classIRI);
-      }
+      objClass = resolver.resolveOWLClass(t.getIRI(), "knowrob:");
     
-      manager.addAxiom(ontology, factory.getOWLClassAssertionAxiom(objClass,
+      addAxiom(ontology, factory.getOWLClassAssertionAxiom(objClass,
         objInstance)); 
     }
     
@@ -286,9 +851,9 @@ public class SemanticMapToOWLExport extends OWLImportExport {
       SemanticMapObject smapObject = (SemanticMapObject) mapObject;
       
       if(!smapObject.getFrame().isEmpty()) {
-        OWLDataProperty property = factory.getOWLDataProperty(
-          "knowrob:tfFrame",  pm);
-        manager.addAxiom(ontology, factory.getOWLDataPropertyAssertionAxiom(
+        OWLDataProperty property = resolver.getOWLDataProperty(
+          "knowrob:tfFrame");
+        addAxiom(ontology, factory.getOWLDataPropertyAssertionAxiom(
           property, objInstance, smapObject.getFrame()));        
       }
     }
@@ -301,10 +866,9 @@ public class SemanticMapToOWLExport extends OWLImportExport {
             prop.endsWith("heightOfObject") )
           continue;
         
-        OWLDataProperty property = factory.getOWLDataProperty(
-          "knowrob:" + prop.split("#")[1],  pm);
+        OWLDataProperty property = resolver.getOWLKnowrobDataProperty(prop);
         if(property!=null)
-          manager.addAxiom(ontology, factory.getOWLDataPropertyAssertionAxiom(
+          addAxiom(ontology, factory.getOWLDataPropertyAssertionAxiom(
           property, objInstance, val));        
       }
     }
@@ -317,9 +881,9 @@ public class SemanticMapToOWLExport extends OWLImportExport {
           ((JointInstance) mapObject).direction, manager, factory, pm,
           ontology);
         
-        OWLObjectProperty direction = factory.getOWLObjectProperty(
-          "knowrob:direction", pm);
-        manager.addAxiom(ontology, factory.getOWLObjectPropertyAssertionAxiom(
+        OWLObjectProperty direction = resolver.getOWLObjectProperty(
+          "knowrob:direction");
+        addAxiom(ontology, factory.getOWLObjectPropertyAssertionAxiom(
           direction, objInstance, dirVec));
       }
     }
@@ -327,6 +891,11 @@ public class SemanticMapToOWLExport extends OWLImportExport {
     return objInstance;
   }
   
+  /**
+  * Create the description of a map object with its dimensions, parts,
+  * pose and perception, like the inherited description, but with the
+  * prefixes of this export.
+  */
   @Override
   public OWLNamedIndividual createSemObjectInstanceDescription(ObjectInstance
       map_obj, OWLNamedIndividual timestamp, OWLOntology ontology) {
@@ -337,7 +906,273 @@ public class SemanticMapToOWLExport extends OWLImportExport {
       time_inst = createTimePointInst(smap_obj.getStamp(), ontology);
     }
     
-    return super.createSemObjectInstanceDescription(map_obj, time_inst,
-      ontology);
+    if(deferredObjects != null) {
+      // the time point is already part of the map, partitions describing
+      // the object will find it among the copied time points
+      deferredObjects.add(map_obj);
+      deferredTimestamps.add(time_inst);
+      
+      return getIRIResolver(ontology).getOWLNamedIndividual(
+        "map:"+map_obj.getShortName());
+    }
+    
+    OWLOntologyManager manager = ontology.getOWLOntologyManager();
+    OWLDataFactory factory = manager.getOWLDataFactory();
+    SemanticMapIRIResolver resolver = getIRIResolver(ontology);
+    
+    OWLNamedIndividual obj_inst = createObjectInst(map_obj, ontology);
+    
+    if(mapInstance != null) {
+      addAxiom(ontology, factory.getOWLObjectPropertyAssertionAxiom(
+        resolver.getOWLObjectProperty("knowrob:describedInMap"), obj_inst,
+        mapInstance));
+    }
+    
+    // write object dimensions
+    Vector3d dimensions = map_obj.getDimensions();
+    if(dimensions != null) {
+      addAxiom(ontology, factory.getOWLDataPropertyAssertionAxiom(
+        resolver.getOWLDataProperty("knowrob:depthOfObject"), obj_inst,
+        dimensions.x));
+      addAxiom(ontology, factory.getOWLDataPropertyAssertionAxiom(
+        resolver.getOWLDataProperty("knowrob:widthOfObject"), obj_inst,
+        dimensions.y));
+      addAxiom(ontology, factory.getOWLDataPropertyAssertionAxiom(
+        resolver.getOWLDataProperty("knowrob:heightOfObject"), obj_inst,
+        dimensions.z));
+    }
+    
+    // write physical parts
+    if(map_obj.getPhysicalParts() != null) {
+      OWLObjectProperty parts = resolver.getOWLObjectProperty(
+        "knowrob:properPhysicalParts");
+      
+      for(ObjectInstance part : map_obj.getPhysicalParts()) {
+        addAxiom(ontology, factory.getOWLObjectPropertyAssertionAxiom(
+          parts, obj_inst, resolver.getOWLNamedIndividual(
+          "map:"+part.getShortName())));
+      }
+    }
+    
+    // write pose and perception
+    Matrix4d pose = map_obj.getPoseMatrix();
+    if(pose != null) {
+      OWLNamedIndividual pose_inst = createPoseInst(map_obj, pose,
+        ontology);
+      createPerceptionInst(map_obj, obj_inst, pose_inst, time_inst,
+        ontology);
+    }
+    
+    return obj_inst;
+  }
+  
+  /**
+  * Create the rotation matrix instance of the pose of a map object.
+  *
+  * @param map_obj Map object
+  * @param pose Pose matrix of the object
+  * @param ontology Ontology the instance is added to
+  * @return Rotation matrix instance
+  */
+  protected OWLNamedIndividual createPoseInst(ObjectInstance map_obj,
+      Matrix4d pose, OWLOntology ontology) {
+    OWLDataFactory factory = ontology.getOWLOntologyManager().
+      getOWLDataFactory();
+    SemanticMapIRIResolver resolver = getIRIResolver(ontology);
+    
+    OWLNamedIndividual pose_inst = resolver.getOWLNamedIndividual(
+      "map:RotationMatrix3D_"+map_obj.getShortName());
+    addAxiom(ontology, factory.getOWLClassAssertionAxiom(
+      resolver.getOWLClass("knowrob:RotationMatrix3D"), pose_inst));
+    
+    for(int i = 0; i < 4; i++) {
+      for(int j = 0; j < 4; j++) {
+        addAxiom(ontology, factory.getOWLDataPropertyAssertionAxiom(
+          resolver.getOWLDataProperty("knowrob:m"+i+j), pose_inst,
+          pose.getElement(i, j)));
+      }
+    }
+    
+    return pose_inst;
+  }
+  
+  /**
+  * Create the perception instance locating a map object at its pose.
+  *
+  * @param map_obj Map object
+  * @param obj_inst Object instance
+  * @param pose_inst Rotation matrix instance of the object pose
+  * @param time_inst Time point of the perception, or null
+  * @param ontology Ontology the instance is added to
+  * @return Perception instance
+  */
+  protected OWLNamedIndividual createPerceptionInst(ObjectInstance map_obj,
+      OWLNamedIndividual obj_inst, OWLNamedIndividual pose_inst,
+      OWLNamedIndividual time_inst, OWLOntology ontology) {
+    OWLDataFactory factory = ontology.getOWLOntologyManager().
+      getOWLDataFactory();
+    SemanticMapIRIResolver resolver = getIRIResolver(ontology);
+    
+    OWLNamedIndividual perc_inst = resolver.getOWLNamedIndividual(
+      "map:SemanticMapPerception_"+map_obj.getShortName());
+    addAxiom(ontology, factory.getOWLClassAssertionAxiom(
+      resolver.getOWLClass("knowrob:SemanticMapPerception"), perc_inst));
+    
+    addAxiom(ontology, factory.getOWLObjectPropertyAssertionAxiom(
+      resolver.getOWLObjectProperty("knowrob:objectActedOn"), perc_inst,
+      obj_inst));
+    addAxiom(ontology, factory.getOWLObjectPropertyAssertionAxiom(
+      resolver.getOWLObjectProperty("knowrob:eventOccursAt"), perc_inst,
+      pose_inst));
+    if(time_inst != null) {
+      addAxiom(ontology, factory.getOWLObjectPropertyAssertionAxiom(
+        resolver.getOWLObjectProperty("knowrob:startTime"), perc_inst,
+        time_inst));
+    }
+    
+    return perc_inst;
+  }
+  
+  /**
+  * Create the address of a map, from the room up to the city, each part
+  * of the address being a physical part of the next.
+  *
+  * @param sem_map_inst Map instance
+  * @param address Types, properties and values of the address parts
+  * @param ontology Ontology the address is added to
+  */
+  protected void createSemMapAddress(OWLNamedIndividual sem_map_inst,
+      ArrayList<String[]> address, OWLOntology ontology) {
+    OWLDataFactory factory = ontology.getOWLOntologyManager().
+      getOWLDataFactory();
+    SemanticMapIRIResolver resolver = getIRIResolver(ontology);
+    OWLNamedIndividual child = null;
+    
+    for(String[] part : address) {
+      OWLClass partClass = resolver.getOWLClass(part[0]);
+      OWLNamedIndividual partInst = resolver.getOWLNamedIndividual(
+        "map:"+partClass.getIRI().getFragment()+"_"+
+        sem_map_inst.getIRI().getFragment());
+      
+      addAxiom(ontology, factory.getOWLClassAssertionAxiom(partClass,
+        partInst));
+      if(part[1].equals("rdfs:label")) {
+        addAxiom(ontology, factory.getOWLAnnotationAssertionAxiom(
+          factory.getRDFSLabel(), partInst.getIRI(),
+          factory.getOWLLiteral(part[2])));
+      }
+      else {
+        addAxiom(ontology, factory.getOWLDataPropertyAssertionAxiom(
+          resolver.getOWLDataProperty(part[1]), partInst, part[2]));
+      }
+      
+      if(child == null) {
+        addAxiom(ontology, factory.getOWLObjectPropertyAssertionAxiom(
+          resolver.getOWLObjectProperty("knowrob:describedInMap"),
+          partInst, sem_map_inst));
+      }
+      else {
+        addAxiom(ontology, factory.getOWLObjectPropertyAssertionAxiom(
+          resolver.getOWLObjectProperty("knowrob:properPhysicalParts"),
+          partInst, child));
+      }
+      child = partInst;
+    }
+  }
+  
+  /**
+  * Create a time point instance, unless an instance with the same
+  * timestamp has been created by the current description.
+  */
+  @Override
+  public OWLNamedIndividual createTimePointInst(long stamp, OWLOntology
+      ontology) {
+    OWLNamedIndividual time_inst = timePoints.get(stamp);
+    
+    if(time_inst == null) {
+      OWLDataFactory factory = ontology.getOWLOntologyManager().
+        getOWLDataFactory();
+      SemanticMapIRIResolver resolver = getIRIResolver(ontology);
+      
+      time_inst = resolver.getOWLNamedIndividual("map:timepoint_"+stamp);
+      addAxiom(ontology, factory.getOWLClassAssertionAxiom(
+        resolver.getOWLClass("knowrob:TimePoint"), time_inst));
+      timePoints.put(stamp, time_inst);
+    }
+    
+    return time_inst;
+  }
+  
+  /**
+  * Task describing a range of objects or actions of a map. Ranges larger
+  * than the partition size are split in halves, and each partition is
+  * described by its own copy of this export into a scratch ontology.
+  */
+  protected abstract class PartitionTask extends
+      RecursiveTask<Set<OWLAxiom>> {
+    protected int from;
+    protected int to;
+    
+    public PartitionTask(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+    
+    /**
+    * Describe a single object or action.
+    *
+    * @param export Export of the partition
+    * @param index Index of the object or action
+    * @param scratch Scratch ontology of the partition
+    */
+    protected abstract void describe(SemanticMapToOWLExport export,
+      int index, OWLOntology scratch);
+    
+    @Override
+    protected Set<OWLAxiom> compute() {
+      if(to-from > partitionSize) {
+        int middle = (from+to) >>> 1;
+        PartitionTask left = split(from, middle);
+        PartitionTask right = split(middle, to);
+        
+        left.fork();
+        Set<OWLAxiom> axioms = right.compute();
+        axioms.addAll(left.join());
+        
+        return axioms;
+      }
+      
+      SemanticMapToOWLExport export = new SemanticMapToOWLExport(
+        SemanticMapToOWLExport.this);
+      OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+      
+      try {
+        OWLOntology scratch = manager.createOntology();
+        for(int i = from; i < to; i++) {
+          describe(export, i, scratch);
+        }
+        export.flushAxioms(scratch);
+        
+        return new HashSet<OWLAxiom>(scratch.getAxioms());
+      }
+      catch(OWLOntologyCreationException e) {
+        throw new OWLRuntimeException(e);
+      }
+    }
+    
+    /**
+    * Create the task describing a subrange of this task.
+    */
+    protected PartitionTask split(int from, int to) {
+      final PartitionTask task = this;
+      
+      return new PartitionTask(from, to) {
+        @Override
+        protected void describe(SemanticMapToOWLExport export, int index,
+            OWLOntology scratch) {
+          task.describe(export, index, scratch);
+        }
+      };
+    }
   }
 }
@@ -0,0 +1,178 @@
+package org.knowrob.map;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import java.util.HashSet;
+
+import org.coode.owlapi.rdf.model.RDFTriple;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.*;
+import org.semanticweb.owlapi.vocab.OWLRDFVocabulary;
+
+/**
+* Writer streaming the description of a semantic map as N-Triples while
+* the description is created
+*
+* The description is written as a header ontology, holding the map
+* instance, its time points, imports and annotations, followed by chunks
+* of axioms describing a bounded number of objects or actions each. A
+* chunk is rendered and discarded as soon as it is complete, such that
+* the description is never held in memory as a whole. The written graph
+* equals the graph of the complete description: declarations of entities
+* declared by the imports of the header are omitted as they would be for
+* the complete description, and declarations of classes and properties
+* repeated across chunks are written once.
+*
+*/
+
+public class SemanticMapTripleStream {
+  /**
+  * Writer the triples are written to
+  */
+  protected Writer writer;
+
+  /**
+  * Manager of the chunk ontologies
+  */
+  protected OWLOntologyManager manager;
+
+  /**
+  * Header ontology, or null if the header has not been written
+  */
+  protected OWLOntology header;
+
+  /**
+  * Written declarations of classes, properties and datatypes
+  */
+  protected HashSet<String> declarations = new HashSet<String>();
+
+  protected long nextBlankNode = 0;
+  protected long axioms = 0;
+
+  public SemanticMapTripleStream(Writer writer) {
+    this.writer = writer;
+    this.manager = OWLManager.createOWLOntologyManager();
+  }
+
+  /**
+  * Get the number of written axioms.
+  *
+  * @return
+  */
+  public long getAxiomCount() {
+    return axioms;
+  }
+
+  /**
+  * Create an empty chunk to be written after the header.
+  *
+  * @return Anonymous chunk ontology
+  */
+  public OWLOntology createChunk() {
+    try {
+      return manager.createOntology();
+    }
+    catch(OWLOntologyCreationException e) {
+      throw new OWLRuntimeException(e);
+    }
+  }
+
+  /**
+  * Write the header ontology. The header must be written before any
+  * chunk, and must have its imports attached.
+  *
+  * @param header Header ontology
+  */
+  public void writeHeader(OWLOntology header) throws IOException {
+    this.header = header;
+    render(header);
+  }
+
+  /**
+  * Write a chunk and discard it.
+  *
+  * @param chunk Chunk ontology as created by createChunk()
+  */
+  public void write(OWLOntology chunk) throws IOException {
+    try {
+      render(chunk);
+    }
+    finally {
+      manager.removeOntology(chunk);
+    }
+  }
+
+  protected void render(OWLOntology ontology) throws IOException {
+    ChunkRenderer renderer = new ChunkRenderer(ontology);
+
+    // blank node labels remain unique across chunks
+    renderer.nextBlankNode = nextBlankNode;
+    renderer.render();
+    nextBlankNode = renderer.nextBlankNode;
+
+    axioms += ontology.getAxiomCount();
+  }
+
+  /**
+  * Get the entity declared by a type triple.
+  *
+  * @param triple Triple of a chunk
+  * @return Declared entity, or null if the triple is no declaration
+  */
+  protected OWLEntity getDeclaredEntity(RDFTriple triple) {
+    if(triple.getSubject().isAnonymous() || triple.getObject().isLiteral() ||
+        triple.getObject().isAnonymous() || !triple.getProperty().getIRI().
+        equals(OWLRDFVocabulary.RDF_TYPE.getIRI())) {
+      return null;
+    }
+
+    IRI type = triple.getObject().getIRI();
+
+    for(EntityType<?> entityType : EntityType.values()) {
+      if(entityType.getVocabulary().getIRI().equals(type)) {
+        return manager.getOWLDataFactory().getOWLEntity(entityType,
+          triple.getSubject().getIRI());
+      }
+    }
+
+    return null;
+  }
+
+  /**
+  * Renderer of a chunk, filtering the declarations written by other
+  * chunks or covered by the imports of the header
+  */
+  protected class ChunkRenderer extends SemanticMapNTriplesStorer.Renderer {
+    public ChunkRenderer(OWLOntology ontology) {
+      super(ontology, ontology.getOWLOntologyManager(),
+        SemanticMapTripleStream.this.writer,
+        new SemanticMapNTriplesStorer.Format());
+    }
+
+    @Override
+    protected boolean accept(RDFTriple triple) {
+      OWLEntity entity = getDeclaredEntity(triple);
+
+      if(entity == null) {
+        return true;
+      }
+
+      if((header != null) && (header != getOntology()) &&
+          !getOntology().isDeclared(entity) && header.isDeclared(entity,
+          true)) {
+        return false;
+      }
+
+      if(entity.isOWLNamedIndividual()) {
+        // individuals are not tracked, such that memory does not grow
+        // with the number of objects
+        return true;
+      }
+
+      return declarations.add(triple.getSubject().getIRI() + " " +
+        triple.getObject().getIRI());
+    }
+  }
+}
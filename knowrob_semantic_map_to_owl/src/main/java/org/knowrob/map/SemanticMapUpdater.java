@@ -0,0 +1,580 @@
+package org.knowrob.map;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.*;
+
+import org.knowrob.owl.ObjectInstance;
+
+import knowrob_semantic_map_msgs.*;
+
+/**
+* Retained OWL description of a semantic map, updated incrementally from
+* subsequent messages of the same map
+*
+* Each map object, action, and property contributes a set of axioms to
+* the ontology. Messages are compared against the previously applied
+* message, and only the contributions of added, removed, and changed
+* entries are generated and applied. Axioms contributed by several entries
+* are reference counted.
+*
+*/
+
+public class SemanticMapUpdater {
+  public final static String MAP_KEY = "map";
+  public final static String OBJECT_KEY = "object:";
+  public final static String ACTION_KEY = "action:";
+  public final static String OBJECT_PROPERTY_KEY = "objectProperty:";
+  public final static String DATA_PROPERTY_KEY = "dataProperty:";
+
+  /**
+  * Estimated memory of a reference to an axiom in the contributions and
+  * reference counts in bytes
+  */
+  public final static long BYTES_PER_REFERENCE = 64;
+
+  /**
+  * Converter providing the mapping of messages
+  */
+  protected SemanticMapToOWL converter;
+
+  /**
+  * Export of the map
+  */
+  protected SemanticMapToOWLExport export;
+
+  /**
+  * Namespace of the map
+  */
+  protected String namespace;
+
+  /**
+  * Last applied map message
+  */
+  protected SemMap map;
+
+  /**
+  * Retained OWL description of the map
+  */
+  protected OWLOntology ontology;
+
+  /**
+  * Applied map objects by identifier
+  */
+  protected HashMap<String, SemMapObject> objects = new
+    HashMap<String, SemMapObject>();
+
+  /**
+  * Applied map actions by identifier
+  */
+  protected HashMap<String, SemMapAction> actions = new
+    HashMap<String, SemMapAction>();
+
+  /**
+  * Applied object properties by key
+  */
+  protected HashMap<String, SemMapObjectProperty> objectProperties = new
+    HashMap<String, SemMapObjectProperty>();
+
+  /**
+  * Applied data properties by key
+  */
+  protected HashMap<String, SemMapDataProperty> dataProperties = new
+    HashMap<String, SemMapDataProperty>();
+
+  /**
+  * Axioms contributed by the applied entries
+  */
+  protected HashMap<String, Set<OWLAxiom>> contributions = new
+    HashMap<String, Set<OWLAxiom>>();
+
+  /**
+  * Number of entries contributing each axiom
+  */
+  protected HashMap<OWLAxiom, Integer> references = new
+    HashMap<OWLAxiom, Integer>();
+
+  /**
+  * Estimated memory of the retained description after the last update
+  */
+  protected volatile long bytes = 0;
+
+  /**
+  * Constructor. Create the OWL description of a semantic map message.
+  *
+  * @param converter Converter providing the mapping of messages
+  * @param map Semantic map message
+  */
+  public SemanticMapUpdater(SemanticMapToOWL converter, SemMap map) {
+    this.converter = converter;
+    this.export = converter.createMapExport(map);
+    this.namespace = converter.getMapNamespace(map);
+
+    this.ontology = export.createOWLMapWithActionDescription(namespace,
+      converter.getMapId(map), new ArrayList<ObjectInstance>(),
+      new ArrayList<SemanticMapAction>(), converter.getMapAddress(map));
+    converter.addMapImports(ontology, map);
+
+    Set<OWLAxiom> mapAxioms = new HashSet<OWLAxiom>(ontology.getAxioms());
+    for(OWLAxiom axiom : mapAxioms) {
+      references.put(axiom, 1);
+    }
+    contributions.put(MAP_KEY, mapAxioms);
+    this.map = map;
+
+    update(map);
+  }
+
+  /**
+  * Get ontology.
+  *
+  * @return
+  */
+  public OWLOntology getOntology() {
+    return ontology;
+  }
+
+  /**
+  * Get the estimated memory of the retained description in bytes, which
+  * may be read without holding the lock of the updater.
+  *
+  * @return
+  */
+  public long getBytes() {
+    return bytes;
+  }
+
+  /**
+  * Check if a message can be applied to this map. Messages which change
+  * the namespace, frame, address, prefixes, or imports of the map require
+  * the map to be created again.
+  *
+  * The semantic map instance keeps the identifier it was created with.
+  *
+  * @param map Semantic map message
+  * @return True if the message can be applied
+  */
+  public boolean isCompatible(SemMap map) {
+    if(!converter.getMapNamespace(map).equals(namespace) ||
+        !map.getHeader().getFrameId().equals(
+          this.map.getHeader().getFrameId())) {
+      return false;
+    }
+
+    List<String[]> address = converter.getMapAddress(map);
+    List<String[]> lastAddress = converter.getMapAddress(this.map);
+    if(address.size() != lastAddress.size()) {
+      return false;
+    }
+    for(int i = 0; i < address.size(); i++) {
+      if(!address.get(i)[2].equals(lastAddress.get(i)[2])) {
+        return false;
+      }
+    }
+
+    if(map.getPrefixes().size() != this.map.getPrefixes().size()) {
+      return false;
+    }
+    for(int i = 0; i < map.getPrefixes().size(); i++) {
+      SemMapPrefix prefix = map.getPrefixes().get(i);
+      SemMapPrefix lastPrefix = this.map.getPrefixes().get(i);
+
+      if(!prefix.getName().equals(lastPrefix.getName()) ||
+          !prefix.getPrefix().equals(lastPrefix.getPrefix())) {
+        return false;
+      }
+    }
+
+    return map.getImports().equals(this.map.getImports());
+  }
+
+  /**
+  * Apply a semantic map message to the retained OWL description. Only
+  * the axioms of added, removed, and changed entries are touched.
+  *
+  * @param map Semantic map message, compatible with this map
+  * @return Changes applied to the ontology
+  */
+  public synchronized List<OWLOntologyChange> update(SemMap map) {
+    OWLOntologyManager manager = ontology.getOWLOntologyManager();
+
+    HashMap<String, SemMapObject> newObjects = new
+      HashMap<String, SemMapObject>();
+    HashMap<String, ArrayList<String>> parts = new
+      HashMap<String, ArrayList<String>>();
+    for(SemMapObject smo : map.getObjects()) {
+      newObjects.put(smo.getId(), smo);
+    }
+    for(SemMapObject smo : map.getObjects()) {
+      String parent = getParent(smo, newObjects);
+
+      if(!parts.containsKey(parent)) {
+        parts.put(parent, new ArrayList<String>());
+      }
+      parts.get(parent).add(smo.getId());
+    }
+
+    HashMap<String, SemMapAction> newActions = new
+      HashMap<String, SemMapAction>();
+    for(SemMapAction sma : map.getActions()) {
+      newActions.put(sma.getId(), sma);
+    }
+
+    // objects describe their parts, so parents of added, removed, and
+    // moved parts change along with them
+    HashSet<String> changedObjects = new HashSet<String>();
+    HashSet<String> removedObjects = new HashSet<String>();
+    for(SemMapObject smo : newObjects.values()) {
+      SemMapObject lastSmo = objects.get(smo.getId());
+
+      if(lastSmo == null) {
+        changedObjects.add(smo.getId());
+        changedObjects.add(getParent(smo, newObjects));
+      }
+      else if(!isSameObject(smo, lastSmo)) {
+        changedObjects.add(smo.getId());
+
+        if(!smo.getPartOf().equals(lastSmo.getPartOf())) {
+          changedObjects.add(getParent(smo, newObjects));
+          changedObjects.add(getParent(lastSmo, objects));
+        }
+      }
+    }
+    for(SemMapObject lastSmo : objects.values()) {
+      if(!newObjects.containsKey(lastSmo.getId())) {
+        removedObjects.add(lastSmo.getId());
+        changedObjects.add(getParent(lastSmo, objects));
+      }
+    }
+    changedObjects.retainAll(newObjects.keySet());
+
+    HashSet<String> changedActions = new HashSet<String>();
+    HashSet<String> removedActions = new HashSet<String>();
+    for(SemMapAction sma : newActions.values()) {
+      SemMapAction lastSma = actions.get(sma.getId());
+
+      // actions link their references only to objects and actions of
+      // the map, so they change when their references appear or vanish
+      if((lastSma == null) || !isSameAction(sma, lastSma) ||
+          !isSameLinks(sma, newObjects, newActions)) {
+        changedActions.add(sma.getId());
+      }
+    }
+    for(String id : actions.keySet()) {
+      if(!newActions.containsKey(id)) {
+        removedActions.add(id);
+      }
+    }
+
+    // property axioms depend on whether their subject is a map object or
+    // a map action
+    HashSet<String> changedSubjects = new HashSet<String>();
+    for(String id : newObjects.keySet()) {
+      if(!objects.containsKey(id)) {
+        changedSubjects.add(id);
+      }
+    }
+    for(String id : newActions.keySet()) {
+      if(!actions.containsKey(id)) {
+        changedSubjects.add(id);
+      }
+    }
+    changedSubjects.addAll(removedObjects);
+    changedSubjects.addAll(removedActions);
+
+    HashMap<String, Set<OWLAxiom>> newContributions = new
+      HashMap<String, Set<OWLAxiom>>();
+    HashSet<String> removedKeys = new HashSet<String>();
+
+    OWLOntology scratch = null;
+    try {
+      scratch = manager.createOntology();
+    }
+    catch(OWLOntologyCreationException e) {
+      throw new IllegalStateException(e);
+    }
+
+    try {
+      SemanticMapRegistry registry = new SemanticMapRegistry();
+
+      for(String id : changedObjects) {
+        SemanticMapObject mo = converter.semMapObj2MapObj(registry,
+          newObjects.get(id));
+
+        if(parts.containsKey(id)) {
+          for(String partId : parts.get(id)) {
+            mo.addPhysicalPart(registry.getSemanticMapObject(partId));
+          }
+        }
+      }
+      for(String id : changedObjects) {
+        export.createMapObjectDescription(
+          registry.getSemanticMapObject(id), scratch);
+        newContributions.put(OBJECT_KEY+id, collectAxioms(scratch));
+      }
+
+      for(String id : changedActions) {
+        SemanticMapAction ma = converter.semMapAct2MapAct(registry,
+          newActions.get(id), newObjects, newActions, namespace);
+
+        export.createActionClass(ma, scratch);
+        if(ma.getAsserted()) {
+          export.createActionInst(ma, scratch);
+        }
+        newContributions.put(ACTION_KEY+id, collectAxioms(scratch));
+      }
+
+      registry.clear();
+    }
+    finally {
+      manager.removeOntology(scratch);
+    }
+
+    for(String id : removedObjects) {
+      removedKeys.add(OBJECT_KEY+id);
+    }
+    for(String id : removedActions) {
+      removedKeys.add(ACTION_KEY+id);
+    }
+
+    HashMap<String, SemMapObjectProperty> newObjectProperties = new
+      HashMap<String, SemMapObjectProperty>();
+    for(SemMapObjectProperty smop : map.getObjectProperties()) {
+      String key = OBJECT_PROPERTY_KEY+smop.getId()+" "+smop.getSubject()+
+        " "+smop.getObject();
+      newObjectProperties.put(key, smop);
+
+      if(!objectProperties.containsKey(key) ||
+          changedSubjects.contains(smop.getSubject())) {
+        newContributions.put(key, toAxiomSet(
+          converter.createObjectPropertyAxiom(smop, newObjects, newActions,
+            namespace, export.getIRIResolver(ontology))));
+      }
+    }
+    for(String key : objectProperties.keySet()) {
+      if(!newObjectProperties.containsKey(key)) {
+        removedKeys.add(key);
+      }
+    }
+
+    HashMap<String, SemMapDataProperty> newDataProperties = new
+      HashMap<String, SemMapDataProperty>();
+    for(SemMapDataProperty smdp : map.getDataProperties()) {
+      String key = DATA_PROPERTY_KEY+smdp.getId()+" "+smdp.getSubject()+
+        " "+smdp.getValueType()+" "+smdp.getValue();
+      newDataProperties.put(key, smdp);
+
+      if(!dataProperties.containsKey(key) ||
+          changedSubjects.contains(smdp.getSubject())) {
+        newContributions.put(key, toAxiomSet(
+          converter.createDataPropertyAxiom(smdp, newObjects, newActions,
+            namespace, export.getIRIResolver(ontology))));
+      }
+    }
+    for(String key : dataProperties.keySet()) {
+      if(!newDataProperties.containsKey(key)) {
+        removedKeys.add(key);
+      }
+    }
+
+    // add new contributions first, so that axioms shared with replaced
+    // contributions are not removed and added again
+    ArrayList<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
+    ArrayList<Set<OWLAxiom>> replaced = new ArrayList<Set<OWLAxiom>>();
+
+    for(Map.Entry<String, Set<OWLAxiom>> contribution :
+        newContributions.entrySet()) {
+      Set<OWLAxiom> lastAxioms = contributions.put(contribution.getKey(),
+        contribution.getValue());
+      if(lastAxioms != null) {
+        replaced.add(lastAxioms);
+      }
+
+      for(OWLAxiom axiom : contribution.getValue()) {
+        Integer count = references.get(axiom);
+
+        if(count == null) {
+          references.put(axiom, 1);
+          changes.add(new AddAxiom(ontology, axiom));
+        }
+        else {
+          references.put(axiom, count+1);
+        }
+      }
+    }
+    for(String key : removedKeys) {
+      Set<OWLAxiom> lastAxioms = contributions.remove(key);
+      if(lastAxioms != null) {
+        replaced.add(lastAxioms);
+      }
+    }
+    for(Set<OWLAxiom> lastAxioms : replaced) {
+      for(OWLAxiom axiom : lastAxioms) {
+        int count = references.get(axiom);
+
+        if(count == 1) {
+          references.remove(axiom);
+          changes.add(new RemoveAxiom(ontology, axiom));
+        }
+        else {
+          references.put(axiom, count-1);
+        }
+      }
+    }
+
+    manager.applyChanges(changes);
+
+    this.map = map;
+    this.objects = newObjects;
+    this.actions = newActions;
+    this.objectProperties = newObjectProperties;
+    this.dataProperties = newDataProperties;
+    this.bytes = estimateBytes();
+
+    return changes;
+  }
+
+  /**
+  * Estimate the memory retained by this updater, that is the description
+  * with the ontologies its manager holds, and the references to its
+  * axioms kept for applying updates.
+  *
+  * @return Estimated memory in bytes
+  */
+  protected long estimateBytes() {
+    long count = references.size();
+    for(Set<OWLAxiom> axioms : contributions.values()) {
+      count += axioms.size();
+    }
+
+    return SemanticMapSessionStore.estimateBytes(ontology)+
+      count*BYTES_PER_REFERENCE;
+  }
+
+  /**
+  * Render changes as OWL functional syntax axioms, prefixed by a plus
+  * for added and a minus for removed axioms, one per line.
+  *
+  * @param changes Changes applied to the ontology
+  * @return Rendered change set
+  */
+  public static String renderChanges(List<OWLOntologyChange> changes) {
+    StringBuilder rendered = new StringBuilder();
+
+    for(OWLOntologyChange change : changes) {
+      if(change.isAxiomChange()) {
+        rendered.append((change instanceof AddAxiom) ? "+ " : "- ");
+        rendered.append(change.getAxiom());
+        rendered.append('\n');
+      }
+    }
+
+    return rendered.toString();
+  }
+
+  protected Set<OWLAxiom> collectAxioms(OWLOntology scratch) {
+    export.flushAxioms(scratch);
+    Set<OWLAxiom> axioms = new HashSet<OWLAxiom>(scratch.getAxioms());
+    scratch.getOWLOntologyManager().removeAxioms(scratch, axioms);
+
+    return axioms;
+  }
+
+  /**
+  * Get the identifier of the parent of an object, i.e., of the object it
+  * is part of.
+  *
+  * @param smo Map object message
+  * @param index Map object messages by identifier
+  * @return Identifier of the parent, or the unresolved reference
+  */
+  protected String getParent(SemMapObject smo, Map<String, SemMapObject>
+      index) {
+    String parent = SemanticMapToOWL.getReferencedId(index,
+      smo.getPartOf(), namespace);
+
+    return (parent != null) ? parent : smo.getPartOf();
+  }
+
+  /**
+  * Check if the references of an action resolve to the same objects and
+  * actions of the map as in the last applied message.
+  *
+  * @param sma Map action message
+  * @param newObjects Map object messages by identifier
+  * @param newActions Map action messages by identifier
+  * @return True if the references are linked as before
+  */
+  protected boolean isSameLinks(SemMapAction sma, Map<String, SemMapObject>
+      newObjects, Map<String, SemMapAction> newActions) {
+    if(!sma.getObjectActedOn().isEmpty() &&
+        ((SemanticMapToOWL.getReferencedId(newObjects,
+          sma.getObjectActedOn(), namespace) == null) !=
+        (SemanticMapToOWL.getReferencedId(objects, sma.getObjectActedOn(),
+          namespace) == null))) {
+      return false;
+    }
+
+    for(String iri : sma.getSubactions()) {
+      if((SemanticMapToOWL.getReferencedId(newActions, iri, namespace) ==
+          null) != (SemanticMapToOWL.getReferencedId(actions, iri,
+          namespace) == null)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  protected static Set<OWLAxiom> toAxiomSet(OWLAxiom axiom) {
+    if(axiom != null) {
+      return Collections.singleton(axiom);
+    }
+    else {
+      return Collections.<OWLAxiom>emptySet();
+    }
+  }
+
+  protected static boolean isSameObject(SemMapObject smo, SemMapObject
+      lastSmo) {
+    return smo.getType().equals(lastSmo.getType()) &&
+      smo.getPartOf().equals(lastSmo.getPartOf()) &&
+      smo.getHeader().getFrameId().equals(
+        lastSmo.getHeader().getFrameId()) &&
+      (Math.round(smo.getHeader().getStamp().toSeconds()) ==
+        Math.round(lastSmo.getHeader().getStamp().toSeconds())) &&
+      (smo.getSize().getX() == lastSmo.getSize().getX()) &&
+      (smo.getSize().getY() == lastSmo.getSize().getY()) &&
+      (smo.getSize().getZ() == lastSmo.getSize().getZ()) &&
+      (smo.getPose().getPosition().getX() ==
+        lastSmo.getPose().getPosition().getX()) &&
+      (smo.getPose().getPosition().getY() ==
+        lastSmo.getPose().getPosition().getY()) &&
+      (smo.getPose().getPosition().getZ() ==
+        lastSmo.getPose().getPosition().getZ()) &&
+      (smo.getPose().getOrientation().getX() ==
+        lastSmo.getPose().getOrientation().getX()) &&
+      (smo.getPose().getOrientation().getY() ==
+        lastSmo.getPose().getOrientation().getY()) &&
+      (smo.getPose().getOrientation().getZ() ==
+        lastSmo.getPose().getOrientation().getZ()) &&
+      (smo.getPose().getOrientation().getW() ==
+        lastSmo.getPose().getOrientation().getW());
+  }
+
+  protected static boolean isSameAction(SemMapAction sma, SemMapAction
+      lastSma) {
+    return sma.getType().equals(lastSma.getType()) &&
+      (sma.getAsserted() == lastSma.getAsserted()) &&
+      sma.getObjectActedOn().equals(lastSma.getObjectActedOn()) &&
+      sma.getSubactions().equals(lastSma.getSubactions()) &&
+      (sma.getQuantification() == lastSma.getQuantification()) &&
+      (sma.getUnordered() == lastSma.getUnordered());
+  }
+}
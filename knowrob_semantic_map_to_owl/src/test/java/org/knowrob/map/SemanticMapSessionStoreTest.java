@@ -0,0 +1,160 @@
+package org.knowrob.map;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.*;
+
+/**
+* Tests of the eviction of the session store by count and estimated memory
+*
+*/
+
+public class SemanticMapSessionStoreTest {
+  public final static String NAMESPACE =
+    "http://knowrob.org/kb/session_store_test.owl#";
+
+  /**
+  * Size of the test descriptions in axioms
+  */
+  public final static int AXIOMS = 10;
+
+  protected SemanticMapSessionStore store;
+
+  @Before
+  public void setUp() {
+    store = new SemanticMapSessionStore();
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedBeyondMaxEntries() throws
+      OWLOntologyCreationException {
+    store.setMaxEntries(2);
+    store.put("A", createOntology("A", AXIOMS));
+    store.put("B", createOntology("B", AXIOMS));
+    assertNotNull(store.get("A"));
+    store.put("C", createOntology("C", AXIOMS));
+
+    assertEquals(2, store.getSize());
+    assertNotNull(store.get("A"));
+    assertNull(store.get("B"));
+    assertNotNull(store.get("C"));
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedBeyondMaxBytes() throws
+      OWLOntologyCreationException {
+    store.setMaxBytes(2*AXIOMS*SemanticMapSessionStore.BYTES_PER_AXIOM);
+    store.put("A", createOntology("A", AXIOMS));
+    store.put("B", createOntology("B", AXIOMS));
+    assertNotNull(store.get("A"));
+    store.put("C", createOntology("C", AXIOMS));
+
+    assertEquals(2, store.getSize());
+    assertEquals(store.getMaxBytes(), store.getBytes());
+    assertNull(store.get("B"));
+  }
+
+  @Test
+  public void pinnedEntryIsNeverEvicted() throws
+      OWLOntologyCreationException {
+    store.setMaxBytes(2*AXIOMS*SemanticMapSessionStore.BYTES_PER_AXIOM);
+    store.put("A", createOntology("A", AXIOMS));
+    assertTrue(store.setPinned("A", true));
+    store.put("B", createOntology("B", AXIOMS));
+    store.put("C", createOntology("C", AXIOMS));
+    store.put("D", createOntology("D", AXIOMS));
+
+    assertNotNull(store.get("A"));
+    assertNull(store.get("B"));
+    assertNull(store.get("C"));
+    assertNotNull(store.get("D"));
+  }
+
+  @Test
+  public void replacedEntryKeepsPin() throws OWLOntologyCreationException {
+    store.setMaxEntries(1);
+    store.put("A", createOntology("A", AXIOMS));
+    store.setPinned("A", true);
+    store.put("A", createOntology("A", 2*AXIOMS));
+    store.put("B", createOntology("B", AXIOMS));
+
+    assertEquals(2*AXIOMS, store.get("A").getAxiomCount());
+    assertNull(store.get("B"));
+  }
+
+  @Test
+  public void newEntryIsEvictedIfPinnedEntriesExhaustMemory() throws
+      OWLOntologyCreationException {
+    store.setMaxBytes(AXIOMS*SemanticMapSessionStore.BYTES_PER_AXIOM);
+    store.put("A", createOntology("A", AXIOMS));
+    store.setPinned("A", true);
+    store.put("B", createOntology("B", AXIOMS));
+
+    assertNotNull(store.get("A"));
+    assertNull(store.get("B"));
+    assertEquals(store.getMaxBytes(), store.getBytes());
+  }
+
+  @Test
+  public void unpinningEvictsBeyondLimits() throws
+      OWLOntologyCreationException {
+    store.setMaxEntries(2);
+    store.put("A", createOntology("A", AXIOMS));
+    store.setPinned("A", true);
+    store.put("B", createOntology("B", AXIOMS));
+    store.setPinned("B", true);
+    store.setMaxEntries(1);
+    assertEquals(2, store.getSize());
+
+    store.setPinned("A", false);
+
+    assertEquals(1, store.getSize());
+    assertNull(store.get("A"));
+  }
+
+  @Test
+  public void estimateCountsImportsOfTheManager() throws
+      OWLOntologyCreationException {
+    OWLOntology ontology = createOntology("A", AXIOMS);
+    OWLOntologyManager manager = ontology.getOWLOntologyManager();
+    OWLOntology imported = manager.createOntology(IRI.create(NAMESPACE+
+      "imported"));
+    addDeclarations(imported, "imported", AXIOMS);
+    manager.applyChange(new AddImport(ontology, manager.getOWLDataFactory().
+      getOWLImportsDeclaration(imported.getOntologyID().getOntologyIRI())));
+
+    assertEquals(2*AXIOMS*SemanticMapSessionStore.BYTES_PER_AXIOM,
+      SemanticMapSessionStore.estimateBytes(ontology));
+  }
+
+  /**
+  * Create an ontology of class declarations in a manager of its own.
+  *
+  * @param name Name of the ontology
+  * @param axioms Number of declarations
+  * @return
+  */
+  protected static OWLOntology createOntology(String name, int axioms)
+      throws OWLOntologyCreationException {
+    OWLOntology ontology = OWLManager.createOWLOntologyManager().
+      createOntology(IRI.create(NAMESPACE+name));
+    addDeclarations(ontology, name, axioms);
+
+    return ontology;
+  }
+
+  protected static void addDeclarations(OWLOntology ontology, String name,
+      int axioms) {
+    OWLOntologyManager manager = ontology.getOWLOntologyManager();
+    OWLDataFactory factory = manager.getOWLDataFactory();
+
+    for(int i = 0; i < axioms; i++) {
+      manager.addAxiom(ontology, factory.getOWLDeclarationAxiom(
+        factory.getOWLClass(IRI.create(NAMESPACE+name+"Class"+i))));
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package org.knowrob.map;
+
+import org.ros.message.MessageFactory;
+import org.ros.node.NodeConfiguration;
+
+import knowrob_semantic_map_msgs.*;
+
+/**
+* Small semantic map messages for the tests, created by a private message
+* factory without a ROS master
+*
+*/
+
+public class SemanticMapTestMessages {
+  public final static String NAMESPACE =
+    "http://knowrob.org/kb/semantic_map_test.owl#";
+
+  /**
+  * Message factory
+  */
+  protected MessageFactory messageFactory;
+
+  public SemanticMapTestMessages() {
+    this.messageFactory = NodeConfiguration.newPrivate().
+      getTopicMessageFactory();
+  }
+
+  /**
+  * Create an empty map in the test namespace.
+  *
+  * @param id Identifier of the map
+  * @return
+  */
+  public SemMap createMap(String id) {
+    SemMap map = messageFactory.newFromType(SemMap._TYPE);
+    map.setId(id);
+    map.setNamespace(NAMESPACE);
+    map.getHeader().setFrameId(SemanticMapToOWLExport.MAP_FRAME);
+
+    return map;
+  }
+
+  /**
+  * Create a kitchen with a cupboard, whose drawer refers to it by an
+  * abbreviated IRI and whose handle refers to the drawer by its full IRI,
+  * and a table carrying a chain of boxes, each part of and connected to
+  * the previous one.
+  *
+  * @param boxes Number of boxes
+  * @return
+  */
+  public SemMap createKitchen(int boxes) {
+    SemMap map = createMap("Kitchen");
+
+    addObject(map, "Cupboard1", "knowrob:Cupboard", "", 0.0, 0.0, 0.5, 1.0);
+    addObject(map, "Drawer1", "knowrob:Drawer", "map:Cupboard1", 0.0, 0.0,
+      0.3, 0.5);
+    addObject(map, "Handle1", "knowrob:Handle", NAMESPACE+"Drawer1", 0.0,
+      0.25, 0.3, 0.05);
+    addObject(map, "Table1", "knowrob:Table", "", 3.0, 0.0, 0.4, 0.8);
+
+    String previous = "Table1";
+    for(int i = 0; i < boxes; i++) {
+      addObject(map, "Box"+i, "knowrob:Box", previous, 3.0, 0.0,
+        0.85+0.1*i, 0.1);
+      addObjectProperty(map, "knowrob:connectedTo", "Box"+i, previous);
+      previous = "Box"+i;
+    }
+
+    addObjectProperty(map, "knowrob:hingedTo", "Drawer1", "Cupboard1");
+    addDataProperty(map, "knowrob:label", "Handle1", "steel handle");
+
+    return map;
+  }
+
+  /**
+  * Add an axis-aligned cubic object to a map.
+  *
+  * @return
+  */
+  public SemMapObject addObject(SemMap map, String id, String type,
+      String partOf, double x, double y, double z, double size) {
+    SemMapObject smo = messageFactory.newFromType(SemMapObject._TYPE);
+    smo.setId(id);
+    smo.setType(type);
+    smo.setPartOf(partOf);
+    smo.getHeader().setFrameId(SemanticMapToOWLExport.MAP_FRAME);
+
+    smo.getPose().getPosition().setX(x);
+    smo.getPose().getPosition().setY(y);
+    smo.getPose().getPosition().setZ(z);
+    smo.getPose().getOrientation().setW(1.0);
+
+    smo.getSize().setX(size);
+    smo.getSize().setY(size);
+    smo.getSize().setZ(size);
+
+    map.getObjects().add(smo);
+
+    return smo;
+  }
+
+  /**
+  * Add an object property to a map.
+  *
+  * @return
+  */
+  public SemMapObjectProperty addObjectProperty(SemMap map, String id,
+      String subject, String object) {
+    SemMapObjectProperty property = messageFactory.newFromType(
+      SemMapObjectProperty._TYPE);
+    property.setId(id);
+    property.setSubject(subject);
+    property.setObject(object);
+
+    map.getObjectProperties().add(property);
+
+    return property;
+  }
+
+  /**
+  * Add a string data property to a map.
+  *
+  * @return
+  */
+  public SemMapDataProperty addDataProperty(SemMap map, String id,
+      String subject, String value) {
+    SemMapDataProperty property = messageFactory.newFromType(
+      SemMapDataProperty._TYPE);
+    property.setId(id);
+    property.setSubject(subject);
+    property.setValue(value);
+    property.setValueType(SemMapDataProperty.VALUE_TYPE_STRING);
+
+    map.getDataProperties().add(property);
+
+    return property;
+  }
+}
@@ -0,0 +1,121 @@
+package org.knowrob.map;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import knowrob_semantic_map_msgs.*;
+
+/**
+* Tests of streaming maps in chunks, whose boundaries cut across the part
+* and property references between the objects
+*
+*/
+
+public class SemanticMapTripleStreamTest {
+  public final static String KNOWROB = "http://knowrob.org/kb/knowrob.owl#";
+
+  protected SemanticMapTestMessages messages;
+  protected SemMap map;
+
+  @Before
+  public void setUp() {
+    messages = new SemanticMapTestMessages();
+    map = messages.createKitchen(10);
+  }
+
+  @Test
+  public void chunksYieldTheTriplesOfTheWholeMap() throws IOException {
+    Set<String> whole = stream(map, 1000);
+
+    assertEquals(whole, stream(map, 1));
+    assertEquals(whole, stream(map, 3));
+  }
+
+  @Test
+  public void partsAreLinkedAcrossChunks() throws IOException {
+    // every chunk holds a single object, property or action
+    Set<String> triples = stream(map, 1);
+
+    assertTrue(triples.contains(triple("Cupboard1", "properPhysicalParts",
+      "Drawer1")));
+    assertTrue(triples.contains(triple("Drawer1", "properPhysicalParts",
+      "Handle1")));
+    assertTrue(triples.contains(triple("Table1", "properPhysicalParts",
+      "Box0")));
+    for(int i = 1; i < 10; i++) {
+      assertTrue(triples.contains(triple("Box"+(i-1), "properPhysicalParts",
+        "Box"+i)));
+    }
+  }
+
+  @Test
+  public void propertiesAreLinkedAcrossChunks() throws IOException {
+    Set<String> triples = stream(map, 1);
+
+    assertTrue(triples.contains(triple("Drawer1", "hingedTo",
+      "Cupboard1")));
+    assertTrue(triples.contains(triple("Box0", "connectedTo", "Table1")));
+    for(int i = 1; i < 10; i++) {
+      assertTrue(triples.contains(triple("Box"+i, "connectedTo",
+        "Box"+(i-1))));
+    }
+  }
+
+  @Test
+  public void declarationsAreWrittenOnce() throws IOException {
+    SemanticMapToOWL converter = new SemanticMapToOWL();
+    converter.partitionSize = 1;
+
+    StringWriter writer = new StringWriter();
+    converter.streamOWLMap(map, writer);
+
+    String declaration = "<"+KNOWROB+"Box> "+
+      "<http://www.w3.org/1999/02/22-rdf-syntax-ns#type> "+
+      "<http://www.w3.org/2002/07/owl#Class> .";
+    String[] lines = writer.toString().split("\n");
+    int count = 0;
+    for(String line : lines) {
+      if(line.equals(declaration)) {
+        count++;
+      }
+    }
+
+    assertEquals(1, count);
+  }
+
+  /**
+  * Stream a map in chunks of a partition size.
+  *
+  * @return Triples, with the time point of the conversion replaced
+  */
+  protected Set<String> stream(SemMap map, int partitionSize) throws
+      IOException {
+    SemanticMapToOWL converter = new SemanticMapToOWL();
+    converter.partitionSize = partitionSize;
+
+    StringWriter writer = new StringWriter();
+    assertTrue(converter.streamOWLMap(map, writer));
+
+    // objects are stamped 0, the map is stamped with the current time
+    Set<String> triples = new HashSet<String>();
+    for(String line : writer.toString().split("\n")) {
+      triples.add(line.replaceAll("timepoint_[1-9][0-9]*", "timepoint_now"));
+    }
+
+    return triples;
+  }
+
+  protected static String triple(String subject, String property,
+      String object) {
+    return "<"+SemanticMapTestMessages.NAMESPACE+subject+"> <"+KNOWROB+
+      property+"> <"+SemanticMapTestMessages.NAMESPACE+object+"> .";
+  }
+}
@@ -0,0 +1,112 @@
+package org.knowrob.map;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.semanticweb.owlapi.model.*;
+
+/**
+* Tests of applying map updates which add, remove, and re-add objects
+*
+*/
+
+public class SemanticMapUpdaterTest {
+  protected SemanticMapTestMessages messages;
+  protected SemanticMapToOWL converter;
+
+  @Before
+  public void setUp() {
+    messages = new SemanticMapTestMessages();
+    converter = new SemanticMapToOWL();
+  }
+
+  @Test
+  public void unchangedMapAppliesNoChanges() {
+    SemanticMapUpdater updater = new SemanticMapUpdater(converter,
+      messages.createKitchen(5));
+
+    assertTrue(updater.update(messages.createKitchen(5)).isEmpty());
+  }
+
+  @Test
+  public void addedObjectMatchesNewDescription() {
+    SemanticMapUpdater updater = new SemanticMapUpdater(converter,
+      messages.createKitchen(4));
+    updater.update(messages.createKitchen(5));
+
+    assertEquals(describe(5), getAxioms(updater.getOntology()));
+  }
+
+  @Test
+  public void removedObjectMatchesNewDescription() {
+    SemanticMapUpdater updater = new SemanticMapUpdater(converter,
+      messages.createKitchen(5));
+    List<OWLOntologyChange> changes = updater.update(
+      messages.createKitchen(4));
+
+    assertFalse(changes.isEmpty());
+    for(OWLOntologyChange change : changes) {
+      assertTrue(change.isAxiomChange());
+    }
+    assertEquals(describe(4), getAxioms(updater.getOntology()));
+
+    // the part and property links of the removed object are gone
+    for(String axiom : getAxioms(updater.getOntology())) {
+      assertFalse(axiom, axiom.contains("Box4"));
+    }
+  }
+
+  @Test
+  public void readdedObjectRestoresDescription() {
+    SemanticMapUpdater updater = new SemanticMapUpdater(converter,
+      messages.createKitchen(5));
+    Set<String> axioms = getAxioms(updater.getOntology());
+
+    updater.update(messages.createKitchen(4));
+    updater.update(messages.createKitchen(5));
+
+    assertEquals(axioms, getAxioms(updater.getOntology()));
+    assertEquals(describe(5), axioms);
+  }
+
+  @Test
+  public void estimatedMemoryFollowsUpdates() {
+    SemanticMapUpdater updater = new SemanticMapUpdater(converter,
+      messages.createKitchen(5));
+    long bytes = updater.getBytes();
+
+    updater.update(messages.createKitchen(20));
+    assertTrue(updater.getBytes() > bytes);
+
+    updater.update(messages.createKitchen(5));
+    assertEquals(bytes, updater.getBytes());
+  }
+
+  /**
+  * Get the axioms of a new description of a kitchen.
+  */
+  protected Set<String> describe(int boxes) {
+    return getAxioms(new SemanticMapUpdater(converter,
+      messages.createKitchen(boxes)).getOntology());
+  }
+
+  /**
+  * Get the axioms of an ontology as strings, with the time point of the
+  * conversion replaced.
+  */
+  protected static Set<String> getAxioms(OWLOntology ontology) {
+    Set<String> axioms = new HashSet<String>();
+    for(OWLAxiom axiom : ontology.getAxioms()) {
+      axioms.add(axiom.toString().replaceAll("timepoint_[1-9][0-9]*",
+        "timepoint_now"));
+    }
+
+    return axioms;
+  }
+}
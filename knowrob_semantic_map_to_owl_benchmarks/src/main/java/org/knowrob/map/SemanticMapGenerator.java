@@ -0,0 +1,280 @@
+package org.knowrob.map;
+
+import java.util.ArrayList;
+
+import org.ros.message.MessageFactory;
+import org.ros.message.Time;
+import org.ros.node.NodeConfiguration;
+
+import knowrob_semantic_map_msgs.*;
+
+/**
+* Generator of synthetic semantic map messages for benchmarking the
+* conversion
+*
+* Objects form a partOf tree with a configurable branching factor, so
+* that small branching factors yield deep trees. Actions form a hierarchy
+* of ordered subactions acting on the objects. Messages are created by a
+* private message factory and do not require a ROS master.
+*
+*/
+
+public class SemanticMapGenerator {
+  public final static String NAMESPACE =
+    "http://knowrob.org/kb/semantic_map_benchmark.owl#";
+  public final static String KNOWROB_PREFIX =
+    "http://knowrob.org/kb/knowrob.owl#";
+
+  public final static String[] OBJECT_TYPES = {"Cupboard", "Drawer",
+    "Door", "Handle", "HingedJoint", "PrismaticJoint", "Table",
+    "CounterTop"};
+
+  /**
+  * Message factory
+  */
+  protected MessageFactory messageFactory;
+
+  /**
+  * Number of objects
+  */
+  protected int objects = 100;
+
+  /**
+  * Number of parts per object
+  */
+  protected int branching = 2;
+
+  /**
+  * Number of actions
+  */
+  protected int actions = 10;
+
+  /**
+  * Number of subactions per action
+  */
+  protected int subactions = 3;
+
+  /**
+  * Number of object and data properties per object and action
+  */
+  protected int properties = 1;
+
+  public SemanticMapGenerator() {
+    this.messageFactory = NodeConfiguration.newPrivate().
+      getTopicMessageFactory();
+  }
+
+  /**
+  * Get objects.
+  *
+  * @return
+  */
+  public int getObjects() {
+    return objects;
+  }
+
+  /**
+  * Set objects.
+  *
+  * @param objects
+  */
+  public void setObjects(int objects) {
+    this.objects = objects;
+  }
+
+  /**
+  * Get branching.
+  *
+  * @return
+  */
+  public int getBranching() {
+    return branching;
+  }
+
+  /**
+  * Set branching.
+  *
+  * @param branching
+  */
+  public void setBranching(int branching) {
+    this.branching = Math.max(1, branching);
+  }
+
+  /**
+  * Get actions.
+  *
+  * @return
+  */
+  public int getActions() {
+    return actions;
+  }
+
+  /**
+  * Set actions.
+  *
+  * @param actions
+  */
+  public void setActions(int actions) {
+    this.actions = actions;
+  }
+
+  /**
+  * Get subactions.
+  *
+  * @return
+  */
+  public int getSubactions() {
+    return subactions;
+  }
+
+  /**
+  * Set subactions.
+  *
+  * @param subactions
+  */
+  public void setSubactions(int subactions) {
+    this.subactions = subactions;
+  }
+
+  /**
+  * Get properties.
+  *
+  * @return
+  */
+  public int getProperties() {
+    return properties;
+  }
+
+  /**
+  * Set properties.
+  *
+  * @param properties
+  */
+  public void setProperties(int properties) {
+    this.properties = properties;
+  }
+
+  /**
+  * Generate a semantic map message.
+  *
+  * @return Semantic map message
+  */
+  public SemMap generate() {
+    SemMap map = messageFactory.newFromType(SemMap._TYPE);
+    map.getHeader().setFrameId("map");
+    map.getHeader().setStamp(new Time(1.4e9));
+    map.setNamespace(NAMESPACE);
+    map.setId("SemanticMapBenchmark");
+
+    SemMapPrefix prefix = messageFactory.newFromType(SemMapPrefix._TYPE);
+    prefix.setName("knowrob");
+    prefix.setPrefix(KNOWROB_PREFIX);
+    map.getPrefixes().add(prefix);
+
+    for(int i = 0; i < objects; i++) {
+      map.getObjects().add(generateObject(i));
+
+      for(int j = 0; j < properties; j++) {
+        SemMapObjectProperty smop = messageFactory.newFromType(
+          SemMapObjectProperty._TYPE);
+        smop.setId("knowrob:connectedTo-Rigidly");
+        smop.setSubject(getObjectId(i));
+        smop.setObject(getObjectId((i+j+1) % objects));
+        map.getObjectProperties().add(smop);
+
+        SemMapDataProperty smdp = messageFactory.newFromType(
+          SemMapDataProperty._TYPE);
+        smdp.setId("knowrob:massOfObject");
+        smdp.setSubject(getObjectId(i));
+        smdp.setValueType(SemMapDataProperty.VALUE_TYPE_FLOAT);
+        smdp.setValue(Double.toString(0.1*(j+1)));
+        map.getDataProperties().add(smdp);
+      }
+    }
+
+    for(int i = 0; i < actions; i++) {
+      map.getActions().add(generateAction(i));
+
+      for(int j = 0; j < properties; j++) {
+        SemMapObjectProperty smop = messageFactory.newFromType(
+          SemMapObjectProperty._TYPE);
+        smop.setId("knowrob:toLocation");
+        smop.setSubject(getActionId(i));
+        smop.setObject(getObjectId((i+j) % Math.max(1, objects)));
+        map.getObjectProperties().add(smop);
+
+        SemMapDataProperty smdp = messageFactory.newFromType(
+          SemMapDataProperty._TYPE);
+        smdp.setId("knowrob:duration");
+        smdp.setSubject(getActionId(i));
+        smdp.setValueType(SemMapDataProperty.VALUE_TYPE_INT);
+        smdp.setValue(Integer.toString(j+1));
+        map.getDataProperties().add(smdp);
+      }
+    }
+
+    return map;
+  }
+
+  protected SemMapObject generateObject(int i) {
+    SemMapObject smo = messageFactory.newFromType(SemMapObject._TYPE);
+
+    smo.setId(getObjectId(i));
+    smo.setType(OBJECT_TYPES[i % OBJECT_TYPES.length]);
+    if(i > 0) {
+      smo.setPartOf(getObjectId((i-1)/branching));
+    }
+    else {
+      smo.setPartOf("");
+    }
+
+    smo.getHeader().setFrameId("/" + getObjectId(i));
+    smo.getHeader().setStamp(new Time(1.4e9+i));
+
+    smo.getSize().setX(0.5);
+    smo.getSize().setY(0.4);
+    smo.getSize().setZ(0.02*(1+i%10));
+
+    smo.getPose().getPosition().setX(0.01*i);
+    smo.getPose().getPosition().setY(0.02*(i%100));
+    smo.getPose().getPosition().setZ(0.5);
+    smo.getPose().getOrientation().setX(0.0);
+    smo.getPose().getOrientation().setY(0.0);
+    smo.getPose().getOrientation().setZ(Math.sin(0.005*i));
+    smo.getPose().getOrientation().setW(Math.cos(0.005*i));
+
+    return smo;
+  }
+
+  protected SemMapAction generateAction(int i) {
+    SemMapAction sma = messageFactory.newFromType(SemMapAction._TYPE);
+
+    sma.setId(getActionId(i));
+    sma.setType("knowrob:PuttingSomethingSomewhere");
+    sma.setAsserted(i == 0);
+    if(objects > 0) {
+      sma.setObjectActedOn(getObjectId(i % objects));
+    }
+    sma.setQuantification(SemMapAction.INTERSECTION_OF);
+    sma.setUnordered(false);
+
+    ArrayList<String> subactionIds = new ArrayList<String>();
+    for(int j = 1; j <= subactions; j++) {
+      int k = i*subactions+j;
+      if(k < actions) {
+        subactionIds.add(getActionId(k));
+      }
+    }
+    sma.setSubactions(subactionIds);
+
+    return sma;
+  }
+
+  protected static String getObjectId(int i) {
+    return "object_" + i;
+  }
+
+  protected static String getActionId(int i) {
+    return "action_" + i;
+  }
+}
@@ -0,0 +1,120 @@
+package org.knowrob.map;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.*;
+
+/**
+* JMH benchmarks of resolving the imports of a generated map, by loading
+* the imported ontologies again or by attaching the cached ones
+*
+* The imports closure consists of two synthetic ontologies written to
+* temporary files, the imported one holding the class hierarchy.
+*
+*/
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SemanticMapImportCacheBenchmark {
+  public final static String NAMESPACE =
+    "http://knowrob.org/kb/import_benchmark.owl#";
+
+  /**
+  * Synthetic imports closure and a cache holding it
+  */
+  @State(Scope.Benchmark)
+  public static class GeneratedImports {
+    @Param({"1000", "10000", "100000"})
+    public int classes;
+
+    File directory;
+    IRI importIRI;
+    SemanticMapImportCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, OWLException {
+      directory = File.createTempFile("imports", "");
+      directory.delete();
+      directory.mkdir();
+
+      OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+      OWLDataFactory factory = manager.getOWLDataFactory();
+
+      File baseFile = new File(directory, "base.owl");
+      OWLOntology base = manager.createOntology(IRI.create(
+        "http://knowrob.org/kb/import_benchmark_base.owl"));
+      for(int i = 1; i < classes; i++) {
+        manager.addAxiom(base, factory.getOWLSubClassOfAxiom(
+          factory.getOWLClass(IRI.create(NAMESPACE+"Class"+i)),
+          factory.getOWLClass(IRI.create(NAMESPACE+"Class"+(i-1)/2))));
+      }
+      manager.saveOntology(base, IRI.create(baseFile));
+
+      File topFile = new File(directory, "top.owl");
+      OWLOntology top = manager.createOntology(IRI.create(
+        "http://knowrob.org/kb/import_benchmark.owl"));
+      manager.applyChange(new AddImport(top,
+        factory.getOWLImportsDeclaration(IRI.create(baseFile))));
+      manager.addAxiom(top, factory.getOWLDeclarationAxiom(
+        factory.getOWLClass(IRI.create(NAMESPACE+"Map"))));
+      manager.saveOntology(top, IRI.create(topFile));
+
+      importIRI = IRI.create(topFile);
+      cache = new SemanticMapImportCache();
+      cache.getImport(importIRI);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      for(File file : directory.listFiles()) {
+        file.delete();
+      }
+      directory.delete();
+    }
+
+    /**
+    * Create a map ontology importing the closure, in a manager of its
+    * own.
+    *
+    * @return
+    */
+    OWLOntology createMap() throws OWLOntologyCreationException {
+      OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+      OWLOntology map = manager.createOntology(IRI.create(
+        "http://knowrob.org/kb/import_benchmark_map.owl"));
+      manager.applyChange(new AddImport(map, manager.getOWLDataFactory().
+        getOWLImportsDeclaration(importIRI)));
+
+      return map;
+    }
+  }
+
+  @Benchmark
+  public int reloadImports(GeneratedImports imports) throws
+      OWLOntologyCreationException {
+    OWLOntology map = imports.createMap();
+    for(OWLImportsDeclaration decl : map.getImportsDeclarations()) {
+      map.getOWLOntologyManager().makeLoadImportRequest(decl);
+    }
+
+    return map.getImportsClosure().size();
+  }
+
+  @Benchmark
+  public int attachImports(GeneratedImports imports) throws
+      OWLOntologyCreationException {
+    OWLOntology map = imports.createMap();
+    imports.cache.attach(map);
+
+    return map.getImportsClosure().size();
+  }
+}
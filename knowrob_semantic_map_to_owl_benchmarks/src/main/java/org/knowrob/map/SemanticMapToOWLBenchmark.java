@@ -0,0 +1,191 @@
+package org.knowrob.map;
+
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.semanticweb.owlapi.model.*;
+
+import org.knowrob.owl.ObjectInstance;
+
+import knowrob_semantic_map_msgs.*;
+
+/**
+* JMH benchmarks of the stages of the semantic map conversion
+*
+* Run them offline with
+* ./gradlew :knowrob_semantic_map_to_owl_benchmarks:jmh
+*
+*/
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SemanticMapToOWLBenchmark {
+  /**
+  * Synthetic map and converter, shared by all stages
+  */
+  @State(Scope.Benchmark)
+  public static class GeneratedMap {
+    @Param({"100", "1000", "10000", "100000"})
+    public int objects;
+
+    @Param({"2"})
+    public int branching;
+
+    @Param({"100"})
+    public int actions;
+
+    @Param({"4"})
+    public int subactions;
+
+    @Param({"1"})
+    public int properties;
+
+    SemanticMapToOWL converter;
+    SemMap map;
+    String namespace;
+    String id;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      SemanticMapGenerator generator = new SemanticMapGenerator();
+      generator.setObjects(objects);
+      generator.setBranching(branching);
+      generator.setActions(actions);
+      generator.setSubactions(subactions);
+      generator.setProperties(properties);
+
+      converter = new SemanticMapToOWL();
+      map = generator.generate();
+      namespace = converter.getMapNamespace(map);
+      id = converter.getMapId(map);
+    }
+  }
+
+  /**
+  * Map objects and actions, created anew for every invocation
+  */
+  @State(Scope.Thread)
+  public static class MappedMap {
+    SemanticMapToOWLExport export;
+    SemanticMapRegistry registry;
+    HashMap<String, ObjectInstance> mos;
+    HashMap<String, SemanticMapAction> mas;
+
+    @Setup(Level.Invocation)
+    public void setUp(GeneratedMap map) {
+      export = map.converter.createMapExport(map.map);
+      registry = new SemanticMapRegistry();
+      mos = map.converter.semMapObj2MapObj(registry, map.namespace,
+        map.map.getObjects());
+      mas = map.converter.semMapAct2MapAct(registry, map.namespace,
+        map.map.getActions());
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+      registry.clear();
+    }
+  }
+
+  /**
+  * Map described without its properties, created anew for every
+  * invocation
+  */
+  @State(Scope.Thread)
+  public static class DescribedMap {
+    MappedMap mapped = new MappedMap();
+    OWLOntology owlmap;
+
+    @Setup(Level.Invocation)
+    public void setUp(GeneratedMap map) {
+      mapped.setUp(map);
+
+      owlmap = mapped.export.createOWLMapWithActionDescription(
+        map.namespace, map.id, new ArrayList<ObjectInstance>(
+        mapped.mos.values()), new ArrayList<SemanticMapAction>(
+        mapped.mas.values()), map.converter.getMapAddress(map.map));
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+      mapped.tearDown();
+      owlmap.getOWLOntologyManager().removeOntology(owlmap);
+    }
+  }
+
+  /**
+  * Completely converted map
+  */
+  @State(Scope.Benchmark)
+  public static class ConvertedMap {
+    SemanticMapOWLWriter writer = new SemanticMapOWLWriter();
+    OWLOntology owlmap;
+
+    @Setup(Level.Trial)
+    public void setUp(GeneratedMap map) {
+      owlmap = map.converter.createOWLMap(map.map);
+    }
+  }
+
+  @Benchmark
+  public HashMap<String, ObjectInstance> mapObjects(GeneratedMap map) {
+    SemanticMapRegistry registry = new SemanticMapRegistry();
+
+    return map.converter.semMapObj2MapObj(registry, map.namespace,
+      map.map.getObjects());
+  }
+
+  @Benchmark
+  public HashMap<String, SemanticMapAction> mapActions(GeneratedMap map) {
+    SemanticMapRegistry registry = new SemanticMapRegistry();
+
+    return map.converter.semMapAct2MapAct(registry, map.namespace,
+      map.map.getActions());
+  }
+
+  @Benchmark
+  public OWLOntology describeMap(GeneratedMap map, MappedMap mapped) {
+    return mapped.export.createOWLMapWithActionDescription(map.namespace,
+      map.id, new ArrayList<ObjectInstance>(mapped.mos.values()),
+      new ArrayList<SemanticMapAction>(mapped.mas.values()),
+      map.converter.getMapAddress(map.map));
+  }
+
+  @Benchmark
+  public OWLOntology addProperties(GeneratedMap map, DescribedMap
+      described) {
+    map.converter.addMapProperties(described.owlmap, map.map,
+      described.mapped.mos, described.mapped.mas, map.namespace,
+      described.mapped.export);
+
+    return described.owlmap;
+  }
+
+  @Benchmark
+  public long writeMap(ConvertedMap converted) throws
+      OWLOntologyStorageException {
+    return converted.writer.write(converted.owlmap,
+      new NullOutputStream()).getSize();
+  }
+
+  /**
+  * Output stream discarding everything written to it
+  */
+  static class NullOutputStream extends OutputStream {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  }
+}